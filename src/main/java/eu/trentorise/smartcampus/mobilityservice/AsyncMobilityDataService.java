@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+import it.sayservice.platform.smartplanner.data.message.alerts.AlertRoad;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.GeolocalizedStopRequest;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Parking;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Route;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Stop;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.StopTime;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import eu.trentorise.smartcampus.mobilityservice.model.Delay;
+import eu.trentorise.smartcampus.mobilityservice.model.TaxiContact;
+import eu.trentorise.smartcampus.mobilityservice.model.TaxiStation;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.TripData;
+
+/**
+ * Asynchronous version of the {@link MobilityDataService} API. Each call is executed
+ * on the executor provided by the caller and returns immediately a {@link MobilityFuture},
+ * so that multiple calls can be issued in parallel and their results collected 
+ * (or notified through callbacks) when ready.
+ * 
+ * @author raman
+ *
+ */
+public class AsyncMobilityDataService {
+
+	private MobilityDataService dataService;
+	private Executor executor;
+
+	/**
+	 * 
+	 * @param dataService synchronous service performing the calls
+	 * @param executor executor running the calls
+	 */
+	public AsyncMobilityDataService(MobilityDataService dataService, Executor executor) {
+		this.dataService = dataService;
+		this.executor = executor;
+	}
+
+	/**
+	 * @see MobilityDataService#getParkings(String, String)
+	 */
+	public MobilityFuture<List<Parking>> getParkings(final String agencyId, final String token) {
+		return submit(new Callable<List<Parking>>() {
+			@Override
+			public List<Parking> call() throws Exception {
+				return dataService.getParkings(agencyId, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getBikeSharings(String, String)
+	 */
+	public MobilityFuture<List<Parking>> getBikeSharings(final String agencyId, final String token) {
+		return submit(new Callable<List<Parking>>() {
+			@Override
+			public List<Parking> call() throws Exception {
+				return dataService.getBikeSharings(agencyId, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getRoadInfo(String, Long, Long, String)
+	 */
+	public MobilityFuture<List<AlertRoad>> getRoadInfo(final String agencyId, final Long from, final Long to, final String token) {
+		return submit(new Callable<List<AlertRoad>>() {
+			@Override
+			public List<AlertRoad> call() throws Exception {
+				return dataService.getRoadInfo(agencyId, from, to, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getRoutes(String, String)
+	 */
+	public MobilityFuture<List<Route>> getRoutes(final String agencyId, final String token) {
+		return submit(new Callable<List<Route>>() {
+			@Override
+			public List<Route> call() throws Exception {
+				return dataService.getRoutes(agencyId, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getStops(String, String, String)
+	 */
+	public MobilityFuture<List<Stop>> getStops(final String agencyId, final String routeId, final String token) {
+		return submit(new Callable<List<Stop>>() {
+			@Override
+			public List<Stop> call() throws Exception {
+				return dataService.getStops(agencyId, routeId, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getStops(String, String, double, double, double, String)
+	 */
+	public MobilityFuture<List<Stop>> getStops(final String agencyId, final String routeId, final double latitude, final double longitude, final double radius, final String token) {
+		return submit(new Callable<List<Stop>>() {
+			@Override
+			public List<Stop> call() throws Exception {
+				return dataService.getStops(agencyId, routeId, latitude, longitude, radius, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getGeolocalizedStops(GeolocalizedStopRequest, String)
+	 */
+	public MobilityFuture<List<Stop>> getGeolocalizedStops(final GeolocalizedStopRequest gsr, final String token) {
+		return submit(new Callable<List<Stop>>() {
+			@Override
+			public List<Stop> call() throws Exception {
+				return dataService.getGeolocalizedStops(gsr, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getStopTimes(String, String, String, String)
+	 */
+	public MobilityFuture<List<StopTime>> getStopTimes(final String agencyId, final String routeId, final String stopId, final String token) {
+		return submit(new Callable<List<StopTime>>() {
+			@Override
+			public List<StopTime> call() throws Exception {
+				return dataService.getStopTimes(agencyId, routeId, stopId, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getNextTrips(String, String, Integer, String)
+	 */
+	public MobilityFuture<List<TripData>> getNextTrips(final String agencyId, final String stopId, final Integer maxResults, final String token) {
+		return submit(new Callable<List<TripData>>() {
+			@Override
+			public List<TripData> call() throws Exception {
+				return dataService.getNextTrips(agencyId, stopId, maxResults, token);
+			}
+		});
+	}
+
+	/**
+	 * Provides info about the next expected public transports for a set of stops. The calls
+	 * are performed in parallel with at most <code>maxConcurrency</code> calls in flight. Failures
+	 * of single stops do not affect the others; calls not completed within the timeout are 
+	 * cancelled and reported as errors, so that a slow stop does not stall the whole batch.
+	 * Calls rejected by the executor are reported as errors as well.
+	 * @param agencyId
+	 * @param stopIds
+	 * @param maxResults number of transports per route to return
+	 * @param token user or client access token 
+	 * @param maxConcurrency max number of parallel calls
+	 * @param timeout max time (in millis) for the whole batch
+	 * @return results and errors indexed by stop ID
+	 * @throws InterruptedException
+	 */
+	public BatchResult<List<TripData>> getNextTrips(String agencyId, Collection<String> stopIds, Integer maxResults, String token, int maxConcurrency, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		BatchResult<List<TripData>> result = new BatchResult<List<TripData>>();
+		final Semaphore permits = new Semaphore(Math.max(1, maxConcurrency));
+		MobilityCallback<List<TripData>> release = new MobilityCallback<List<TripData>>() {
+			@Override
+			public void onSuccess(List<TripData> r) {
+				permits.release();
+			}
+			@Override
+			public void onFailure(Throwable error) {
+				permits.release();
+			}
+		};
+
+		Map<String, MobilityFuture<List<TripData>>> futures = new LinkedHashMap<String, MobilityFuture<List<TripData>>>();
+		for (String stopId : new LinkedHashSet<String>(stopIds)) {
+			if (!permits.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+				result.getErrors().put(stopId, new TimeoutException());
+				continue;
+			}
+			try {
+				futures.put(stopId, getNextTrips(agencyId, stopId, maxResults, token).addCallback(release));
+			} catch (RejectedExecutionException e) {
+				permits.release();
+				result.getErrors().put(stopId, e);
+			}
+		}
+		for (String stopId : futures.keySet()) {
+			MobilityFuture<List<TripData>> future = futures.get(stopId);
+			try {
+				result.getResults().put(stopId, future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+			} catch (ExecutionException e) {
+				result.getErrors().put(stopId, e.getCause());
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				result.getErrors().put(stopId, e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @see MobilityDataService#getTimeTable(String, String, long, String)
+	 */
+	public MobilityFuture<TimeTable> getTimeTable(final String agencyId, final String routeId, final long when, final String token) {
+		return submit(new Callable<TimeTable>() {
+			@Override
+			public TimeTable call() throws Exception {
+				return dataService.getTimeTable(agencyId, routeId, when, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getDelays(String, String, String)
+	 */
+	public MobilityFuture<List<Delay>> getDelays(final String agencyId, final String routeId, final String token) {
+		return submit(new Callable<List<Delay>>() {
+			@Override
+			public List<Delay> call() throws Exception {
+				return dataService.getDelays(agencyId, routeId, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getVersions(String)
+	 */
+	public MobilityFuture<Map<String, Long>> getVersions(final String token) {
+		return submit(new Callable<Map<String, Long>>() {
+			@Override
+			public Map<String, Long> call() throws Exception {
+				return dataService.getVersions(token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getTaxiAgencyContacts(String)
+	 */
+	public MobilityFuture<List<TaxiContact>> getTaxiAgencyContacts(final String token) {
+		return submit(new Callable<List<TaxiContact>>() {
+			@Override
+			public List<TaxiContact> call() throws Exception {
+				return dataService.getTaxiAgencyContacts(token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getTaxiStops(String)
+	 */
+	public MobilityFuture<List<TaxiStation>> getTaxiStops(final String token) {
+		return submit(new Callable<List<TaxiStation>>() {
+			@Override
+			public List<TaxiStation> call() throws Exception {
+				return dataService.getTaxiStops(token);
+			}
+		});
+	}
+
+	/**
+	 * Submit the call to the executor
+	 * @param call
+	 * @return future of the call result
+	 */
+	protected <T> MobilityFuture<T> submit(Callable<T> call) {
+		MobilityFuture<T> future = new MobilityFuture<T>(call);
+		executor.execute(future);
+		return future;
+	}
+}
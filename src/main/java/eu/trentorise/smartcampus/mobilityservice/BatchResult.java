@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of a batch of calls (e.g., next trips for a set of stops): the successful 
+ * results and the errors of the failed calls, both indexed by the request key. 
+ * Calls not completed within the batch timeout are reported with a 
+ * {@link java.util.concurrent.TimeoutException} error.
+ * 
+ * @author raman
+ *
+ * @param <T> type of the single call result
+ */
+public class BatchResult<T> {
+
+	private Map<String, T> results = new LinkedHashMap<String, T>();
+	private Map<String, Throwable> errors = new LinkedHashMap<String, Throwable>();
+
+	/**
+	 * @return results of the successful calls
+	 */
+	public Map<String, T> getResults() {
+		return results;
+	}
+
+	/**
+	 * @return errors of the failed calls
+	 */
+	public Map<String, Throwable> getErrors() {
+		return errors;
+	}
+
+	/**
+	 * @return true if all the calls succeeded
+	 */
+	public boolean isComplete() {
+		return errors.isEmpty();
+	}
+}
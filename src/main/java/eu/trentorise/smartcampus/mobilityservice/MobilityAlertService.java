@@ -23,8 +23,9 @@ import it.sayservice.platform.smartplanner.data.message.alerts.AlertRoad;
 import it.sayservice.platform.smartplanner.data.message.alerts.AlertStrike;
 import it.sayservice.platform.smartplanner.data.message.alerts.AlertType;
 import it.sayservice.platform.smartplanner.data.message.alerts.CreatorType;
+import eu.trentorise.smartcampus.mobilityservice.transport.MobilityTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.RemoteConnectorTransport;
 import eu.trentorise.smartcampus.network.JsonUtils;
-import eu.trentorise.smartcampus.network.RemoteConnector;
 
 
 /**
@@ -39,16 +40,27 @@ public class MobilityAlertService {
 	private static final String USER_ALERT = "alert/user";
 	private static final String SERVICE_ALERT = "alert/service";
 	private String serviceUrl;
+	private MobilityTransport transport;
 
 	/**
 	 * 
 	 * @param serviceUrl service address
 	 */
 	public MobilityAlertService(String serviceUrl) {
+		this(serviceUrl, new RemoteConnectorTransport());
+	}
+
+	/**
+	 * 
+	 * @param serviceUrl service address
+	 * @param transport transport used to perform remote calls, may be shared among services
+	 */
+	public MobilityAlertService(String serviceUrl, MobilityTransport transport) {
 		this.serviceUrl = serviceUrl;
 		if (!serviceUrl.endsWith("/")) {
 			this.serviceUrl += '/';
 		}
+		this.transport = transport;
 	}
 
 	/**
@@ -62,7 +74,7 @@ public class MobilityAlertService {
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
 			alert.setCreatorType(CreatorType.USER);
-			RemoteConnector.postJSON(serviceUrl, USER_ALERT, toJSON(alert), token);
+			transport.postJSON(serviceUrl, USER_ALERT, toJSON(alert), token);
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -96,7 +108,7 @@ public class MobilityAlertService {
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
 			alert.setCreatorType(CreatorType.SERVICE);
-			RemoteConnector.postJSON(serviceUrl, SERVICE_ALERT, JsonUtils.toJSON(alert), token);
+			transport.postJSON(serviceUrl, SERVICE_ALERT, JsonUtils.toJSON(alert), token);
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+/**
+ * Callback notified upon completion of an asynchronous service call.
+ * 
+ * @author raman
+ *
+ * @param <T> type of the call result
+ */
+public interface MobilityCallback<T> {
+
+	/**
+	 * Called when the call completes successfully
+	 * @param result
+	 */
+	void onSuccess(T result);
+
+	/**
+	 * Called when the call fails. The error is normally a {@link MobilityServiceException} 
+	 * or a {@link SecurityException}.
+	 * @param error
+	 */
+	void onFailure(Throwable error);
+}
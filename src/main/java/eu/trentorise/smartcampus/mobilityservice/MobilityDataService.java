@@ -16,7 +16,6 @@
 package eu.trentorise.smartcampus.mobilityservice;
 
 import it.sayservice.platform.smartplanner.data.message.alerts.AlertRoad;
-import it.sayservice.platform.smartplanner.data.message.alerts.CreatorType;
 import it.sayservice.platform.smartplanner.data.message.cache.CacheUpdateResponse;
 import it.sayservice.platform.smartplanner.data.message.otpbeans.GeolocalizedStopRequest;
 import it.sayservice.platform.smartplanner.data.message.otpbeans.Parking;
@@ -24,23 +23,34 @@ import it.sayservice.platform.smartplanner.data.message.otpbeans.Route;
 import it.sayservice.platform.smartplanner.data.message.otpbeans.Stop;
 import it.sayservice.platform.smartplanner.data.message.otpbeans.StopTime;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.StringReader;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+
+import eu.trentorise.smartcampus.mobilityservice.cache.CachedResponse;
+import eu.trentorise.smartcampus.mobilityservice.cache.IdDictionary;
+import eu.trentorise.smartcampus.mobilityservice.cache.ResponseCache;
+import eu.trentorise.smartcampus.mobilityservice.cache.SingleFlight;
+import eu.trentorise.smartcampus.mobilityservice.cache.TimeTableStore;
+import eu.trentorise.smartcampus.mobilityservice.json.TransitDecoder;
 import eu.trentorise.smartcampus.mobilityservice.model.Delay;
 import eu.trentorise.smartcampus.mobilityservice.model.TaxiContact;
 import eu.trentorise.smartcampus.mobilityservice.model.TaxiStation;
 import eu.trentorise.smartcampus.mobilityservice.model.TimeTable;
 import eu.trentorise.smartcampus.mobilityservice.model.TripData;
+import eu.trentorise.smartcampus.mobilityservice.transport.ConditionalResponse;
+import eu.trentorise.smartcampus.mobilityservice.transport.FileDownloader;
+import eu.trentorise.smartcampus.mobilityservice.transport.MobilityTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.RemoteConnectorTransport;
 import eu.trentorise.smartcampus.network.JsonUtils;
-import eu.trentorise.smartcampus.network.RemoteConnector;
 import eu.trentorise.smartcampus.network.RemoteException;
 
 
@@ -52,8 +62,6 @@ import eu.trentorise.smartcampus.network.RemoteException;
  */
 public class MobilityDataService {
 
-	private static final String BEARER = "Bearer ";
-	private static final String AUTHORIZATION = "Authorization";
 	private static final String ROUTES = "getroutes/%s";
 	private static final String STOPS = "getstops/%s/%s";
 	private static final String STOPS_GEO = "getstops/%s/%s/%g/%g/%g";
@@ -76,17 +84,103 @@ public class MobilityDataService {
 	private static final String TAXIINFO = "getTaxiAgencyContacts/";
 	private static final String TAXISTOPS = "getTaxiStation/";
 
+	private static final int DOWNLOAD_ATTEMPTS = 5;
+
 	private String serviceUrl;
+	private MobilityTransport transport;
+	private ResponseCache responseCache;
+	private SingleFlight singleFlight;
+	private TimeTableStore timeTableStore;
+	private IdDictionary idDictionary = new IdDictionary();
 
 	/**
 	 * 
 	 * @param serviceUrl service address
 	 */
 	public MobilityDataService(String serviceUrl) {
+		this(serviceUrl, new RemoteConnectorTransport());
+	}
+
+	/**
+	 * 
+	 * @param serviceUrl service address
+	 * @param transport transport used to perform remote calls, may be shared among services
+	 */
+	public MobilityDataService(String serviceUrl, MobilityTransport transport) {
 		this.serviceUrl = serviceUrl;
 		if (!serviceUrl.endsWith("/")) {
 			this.serviceUrl += '/';
 		}
+		this.transport = transport;
+	}
+
+	/**
+	 * Enable conditional requests for the static data (routes and stops). Responses are 
+	 * cached with their validators and returned without decoding on '304 Not Modified', 
+	 * or without any request while the agency version returned by {@link #getVersions(String)} 
+	 * does not change.
+	 * @param responseCache cache to use, null to disable
+	 */
+	public void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	/**
+	 * @return the cache of static data responses, null if not enabled
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Enable the persistent timetable store: timetables are read by {@link #getTimeTable(String, String, long, String)} 
+	 * from the store if present there, and stored after being read from the server otherwise. The store 
+	 * does not keep the delays: for stored timetables only the delays are read from the server.
+	 * @param timeTableStore store to use, null to disable
+	 */
+	public void setTimeTableStore(TimeTableStore timeTableStore) {
+		this.timeTableStore = timeTableStore;
+	}
+
+	/**
+	 * @return the persistent timetable store, null if not enabled
+	 */
+	public TimeTableStore getTimeTableStore() {
+		return timeTableStore;
+	}
+
+	/**
+	 * Enable coalescing of concurrent identical real-time calls ({@link #getNextTrips(String, String, Integer, String)}, 
+	 * {@link #getStopTimes(String, String, String, String)}): callers asking for the same data with the same 
+	 * token while a call is in flight share its result. 
+	 * @param singleFlight coalescing registry, null to disable
+	 */
+	public void setSingleFlight(SingleFlight singleFlight) {
+		this.singleFlight = singleFlight;
+	}
+
+	/**
+	 * @return the coalescing registry, null if not enabled
+	 */
+	public SingleFlight getSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * Set the dictionary the decoded agency, route, stop and trip ids are interned in, so that the 
+	 * objects read from different responses share the same id instances. Enabled by default, with 
+	 * a dictionary of {@link IdDictionary#DEFAULT_MAX_SIZE} ids that starts over when full.
+	 * @param idDictionary dictionary to use, null to disable
+	 */
+	public void setIdDictionary(IdDictionary idDictionary) {
+		this.idDictionary = idDictionary;
+	}
+
+	/**
+	 * @return the id dictionary, null if not enabled
+	 */
+	public IdDictionary getIdDictionary() {
+		return idDictionary;
 	}
 
 	/**
@@ -101,7 +195,7 @@ public class MobilityDataService {
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
 //			agencyId = URLEncoder.encode(agencyId, "utf8");
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(PARKING, agencyId), token);
+			String json = transport.getJSON(serviceUrl, String.format(PARKING, agencyId), token);
 			return JsonUtils.toObjectList(json,Parking.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -123,7 +217,7 @@ public class MobilityDataService {
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
 //			agencyId = URLEncoder.encode(agencyId, "utf8");
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(BIKE_SHARING, agencyId), token);
+			String json = transport.getJSON(serviceUrl, String.format(BIKE_SHARING, agencyId), token);
 			return JsonUtils.toObjectList(json,Parking.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -151,7 +245,7 @@ public class MobilityDataService {
 		if (to == null || to < from) to = from+1000*60*60*24;
 		try {
 //			agencyId = URLEncoder.encode(agencyId, "utf8");
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(ROADINFO, agencyId, from, to), token);
+			String json = transport.getJSON(serviceUrl, String.format(ROADINFO, agencyId, from, to), token);
 			return JsonUtils.toObjectList(json, AlertRoad.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -172,8 +266,7 @@ public class MobilityDataService {
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
 //			agencyId = URLEncoder.encode(agencyId, "utf8");
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(ROUTES, agencyId), token);
-			return JsonUtils.toObjectList(json, Route.class);
+			return getStaticList(String.format(ROUTES, agencyId), agencyId, token, Route.class);
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -195,8 +288,7 @@ public class MobilityDataService {
 		try {
 //			agencyId = URLEncoder.encode(agencyId, "utf8");
 //			routeId = URLEncoder.encode(routeId, "utf8");
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(STOPS, agencyId, routeId), token);
-			return JsonUtils.toObjectList(json, Stop.class);
+			return getStaticList(String.format(STOPS, agencyId, routeId), agencyId, token, Stop.class);
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -221,8 +313,7 @@ public class MobilityDataService {
 		try {
 //			agencyId = URLEncoder.encode(agencyId, "utf8");
 //			routeId = URLEncoder.encode(routeId, "utf8");
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(STOPS_GEO, agencyId, routeId, latitude, longitude, radius), token);
-			return JsonUtils.toObjectList(json, Stop.class);
+			return getStaticList(String.format(STOPS_GEO, agencyId, routeId, latitude, longitude, radius), agencyId, token, Stop.class);
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -230,6 +321,34 @@ public class MobilityDataService {
 		}
 	}	
 	
+	/**
+	 * Read the list of static data elements, using the response cache (if enabled) 
+	 * to avoid transferring and decoding unchanged data.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T> getStaticList(String service, String agencyId, String token, Class<T> type) throws SecurityException, RemoteException {
+		if (responseCache == null) {
+			String json = transport.getJSON(serviceUrl, service, token);
+			return internIds(JsonUtils.toObjectList(json, type));
+		}
+		String url = serviceUrl + service;
+		CachedResponse cached = responseCache.get(url);
+		Long version = responseCache.getVersion(agencyId);
+		if (cached != null && version != null && version.equals(cached.getVersion())) {
+			return (List<T>) cached.getValue();
+		}
+		ConditionalResponse resp = transport.getConditional(serviceUrl, service, token, 
+				cached == null ? null : cached.getEtag(), 
+				cached == null ? null : cached.getLastModified());
+		if (resp.isNotModified() && cached != null) {
+			cached.setVersion(version);
+			return (List<T>) cached.getValue();
+		}
+		List<T> result = internIds(JsonUtils.toObjectList(resp.getBody(), type));
+		responseCache.put(url, new CachedResponse(resp.getEtag(), resp.getLastModified(), version, result));
+		return result;
+	}
+
 	/**
 	 * Provides information about agency stops around a points.
 	 * @throws RemoteException 
@@ -246,10 +365,171 @@ public class MobilityDataService {
 		params.put("page", gsr.getPageNumber());
 		params.put("count", gsr.getPageSize());
 		
-		String json = RemoteConnector.getJSON(serviceUrl, String.format(GEOLOCALIZED_STOPS,gsr.getAgencyId()), token, params);
-		List<Stop> result = JsonUtils.toObjectList(json, Stop.class);
+		String json = transport.getJSON(serviceUrl, String.format(GEOLOCALIZED_STOPS,gsr.getAgencyId()), token, params);
+		List<Stop> result = internIds(JsonUtils.toObjectList(json, Stop.class));
 		return result;
 	}		
+
+	/**
+	 * Stream transport agency routes: the routes are decoded one at a time while 
+	 * reading the response. The iterator should be closed if not consumed completely.
+	 * @param agencyId
+	 * @param token user or client access token 
+	 * @return iterator over {@link Route} instances
+	 * @throws MobilityServiceException
+	 */
+	public MobilityIterator<Route> iterateRoutes(String agencyId, String token) throws MobilityServiceException {
+		if (agencyId == null)
+			throw new MobilityServiceException("Incomplete request parameters");
+		return iterate(String.format(ROUTES, agencyId), token, Route.class);
+	}
+
+	/**
+	 * Stream transport agency routes passing each of them to the handler as soon as decoded.
+	 * @param agencyId
+	 * @param token user or client access token 
+	 * @param handler
+	 * @throws MobilityServiceException
+	 */
+	public void getRoutes(String agencyId, String token, MobilityItemHandler<Route> handler) throws MobilityServiceException {
+		handle(iterateRoutes(agencyId, token), handler);
+	}
+
+	/**
+	 * Stream the route stops: the stops are decoded one at a time while 
+	 * reading the response. The iterator should be closed if not consumed completely.
+	 * @param agencyId
+	 * @param routeId
+	 * @param token user or client access token 
+	 * @return iterator over {@link Stop} instances
+	 * @throws MobilityServiceException
+	 */
+	public MobilityIterator<Stop> iterateStops(String agencyId, String routeId, String token) throws MobilityServiceException {
+		if (agencyId == null || routeId == null)
+			throw new MobilityServiceException("Incomplete request parameters");
+		return iterate(String.format(STOPS, agencyId, routeId), token, Stop.class);
+	}
+
+	/**
+	 * Stream the route stops passing each of them to the handler as soon as decoded.
+	 * @param agencyId
+	 * @param routeId
+	 * @param token user or client access token 
+	 * @param handler
+	 * @throws MobilityServiceException
+	 */
+	public void getStops(String agencyId, String routeId, String token, MobilityItemHandler<Stop> handler) throws MobilityServiceException {
+		handle(iterateStops(agencyId, routeId, token), handler);
+	}
+
+	/**
+	 * Stream the agency stops around a point: the stops are decoded one at a time while 
+	 * reading the response. The iterator should be closed if not consumed completely.
+	 * @param gsr
+	 * @param token user or client access token 
+	 * @return iterator over {@link Stop} instances
+	 * @throws MobilityServiceException
+	 */
+	public MobilityIterator<Stop> iterateGeolocalizedStops(GeolocalizedStopRequest gsr, String token) throws MobilityServiceException {
+		if (gsr == null || gsr.getAgencyId() == null || gsr.getCoordinates() == null)
+			throw new MobilityServiceException("Incomplete request parameters");
+		String query = "?lat=" + gsr.getCoordinates()[0] + "&lng=" + gsr.getCoordinates()[1] + "&radius=" + gsr.getRadius()
+				+ "&page=" + gsr.getPageNumber() + "&count=" + gsr.getPageSize();
+		return iterate(String.format(GEOLOCALIZED_STOPS, gsr.getAgencyId()) + query, token, Stop.class);
+	}
+
+	/**
+	 * Stream the agency stops around a point passing each of them to the handler as soon as decoded.
+	 * @param gsr
+	 * @param token user or client access token 
+	 * @param handler
+	 * @throws MobilityServiceException
+	 */
+	public void getGeolocalizedStops(GeolocalizedStopRequest gsr, String token, MobilityItemHandler<Stop> handler) throws MobilityServiceException {
+		handle(iterateGeolocalizedStops(gsr, token), handler);
+	}
+
+	/**
+	 * Stream the parkings of the agency: the parkings are decoded one at a time while 
+	 * reading the response. The iterator should be closed if not consumed completely.
+	 * @param agencyId
+	 * @param token user or client access token 
+	 * @return iterator over {@link Parking} instances
+	 * @throws MobilityServiceException
+	 */
+	public MobilityIterator<Parking> iterateParkings(String agencyId, String token) throws MobilityServiceException {
+		if (agencyId == null)
+			throw new MobilityServiceException("Incomplete request parameters");
+		return iterate(String.format(PARKING, agencyId), token, Parking.class);
+	}
+
+	/**
+	 * Stream the parkings of the agency passing each of them to the handler as soon as decoded.
+	 * @param agencyId
+	 * @param token user or client access token 
+	 * @param handler
+	 * @throws MobilityServiceException
+	 */
+	public void getParkings(String agencyId, String token, MobilityItemHandler<Parking> handler) throws MobilityServiceException {
+		handle(iterateParkings(agencyId, token), handler);
+	}
+
+	/**
+	 * Stream the bike sharing stations of the agency: the stations are decoded one at a time while 
+	 * reading the response. The iterator should be closed if not consumed completely.
+	 * @param agencyId
+	 * @param token user or client access token 
+	 * @return iterator over {@link Parking} instances
+	 * @throws MobilityServiceException
+	 */
+	public MobilityIterator<Parking> iterateBikeSharings(String agencyId, String token) throws MobilityServiceException {
+		if (agencyId == null)
+			throw new MobilityServiceException("Incomplete request parameters");
+		return iterate(String.format(BIKE_SHARING, agencyId), token, Parking.class);
+	}
+
+	/**
+	 * Stream the bike sharing stations of the agency passing each of them to the handler as soon as decoded.
+	 * @param agencyId
+	 * @param token user or client access token 
+	 * @param handler
+	 * @throws MobilityServiceException
+	 */
+	public void getBikeSharings(String agencyId, String token, MobilityItemHandler<Parking> handler) throws MobilityServiceException {
+		handle(iterateBikeSharings(agencyId, token), handler);
+	}
+
+	private <T> MobilityIterator<T> iterate(String service, String token, Class<T> type) throws MobilityServiceException {
+		try {
+			return new MobilityIterator<T>(transport.getStream(serviceUrl, service, token), type);
+		}catch (SecurityException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MobilityServiceException(e);
+		}
+	}
+
+	private <T> void handle(MobilityIterator<T> iterator, MobilityItemHandler<T> handler) throws MobilityServiceException {
+		try {
+			while (true) {
+				T item;
+				// only the errors of the iterator are service errors, those of the handler are propagated as they are
+				try {
+					if (!iterator.hasNext()) break;
+					item = iterator.next();
+				} catch (IllegalStateException e) {
+					throw new MobilityServiceException(e.getCause() != null ? e.getCause() : e);
+				}
+				handler.onItem(item);
+			}
+		} finally {
+			try {
+				iterator.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
 	
 	
 	/**
@@ -262,15 +542,21 @@ public class MobilityDataService {
 	 * @return List of {@link StopTime} instances
 	 * @throws MobilityServiceException
 	 */
-	public List<StopTime> getStopTimes(String agencyId, String routeId, String stopId, String token) throws MobilityServiceException {
+	public List<StopTime> getStopTimes(String agencyId, String routeId, String stopId, final String token) throws MobilityServiceException {
 		if (agencyId == null || routeId == null || stopId == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
 			agencyId = URLEncoder.encode(agencyId, "utf8");
 			routeId = URLEncoder.encode(routeId, "utf8");
 			stopId = URLEncoder.encode(stopId, "utf8");
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(TT, agencyId, routeId, stopId), token);
-			return JsonUtils.toObjectList(json, StopTime.class);
+			final String service = String.format(TT, agencyId, routeId, stopId);
+			return coalesce(service, token, new Callable<List<StopTime>>() {
+				@Override
+				public List<StopTime> call() throws Exception {
+					String json = transport.getJSON(serviceUrl, service, token);
+					return JsonUtils.toObjectList(json, StopTime.class);
+				}
+			});
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -287,15 +573,21 @@ public class MobilityDataService {
 	 * @return List of {@link TripData} instances
 	 * @throws MobilityServiceException
 	 */
-	public List<TripData> getNextTrips(String agencyId, String stopId, Integer maxResults, String token) throws MobilityServiceException {
+	public List<TripData> getNextTrips(String agencyId, String stopId, Integer maxResults, final String token) throws MobilityServiceException {
 		if (agencyId == null || stopId == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
 			agencyId = URLEncoder.encode(agencyId, "utf8");
 			stopId = URLEncoder.encode(stopId, "utf8");
 			if (maxResults == null || maxResults < 0) maxResults = 3;
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(LIMITED_TT, agencyId, stopId, maxResults), token);
-			return toTripDataList(json);
+			final String service = String.format(LIMITED_TT, agencyId, stopId, maxResults);
+			return coalesce(service, token, new Callable<List<TripData>>() {
+				@Override
+				public List<TripData> call() throws Exception {
+					String json = transport.getJSON(serviceUrl, service, token);
+					return toTripDataList(json);
+				}
+			});
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -304,42 +596,23 @@ public class MobilityDataService {
 	}
 
 	/**
-	 * @param json
-	 * @return
+	 * Perform the call, joining the identical call in flight if coalescing is enabled.
+	 * The key contains the service path (with normalized parameters) and the token, so 
+	 * that results are shared only within the same authorization scope.
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private List<TripData> toTripDataList(String json) {
-		Map<String,Object> map = JsonUtils.toObject(json, Map.class);
-		List<TripData> result = new ArrayList<TripData>();
-		for(String routeId : map.keySet()) {
-			Map obj = (Map)map.get(routeId);
-			List<Map> times = (List)obj.get("times");
-			Map delays = (Map)obj.get("delays");
-			for (Map tMap : times) {
-				TripData t = new TripData();
-				t.setRouteId(routeId);
-				t.setRouteName((String)obj.get("name"));
-				t.setRouteShortName((String)obj.get("route"));
-				if (tMap.containsKey("time")) t.setTime(Long.parseLong(tMap.get("time").toString()));
-				Map tripObj = (Map)tMap.get("trip");
-				t.setTripId((String)tripObj.get("id"));
-				t.setAgencyId((String)tripObj.get("agency"));
-
-				Delay delay = null;
-				if (delays.containsKey(t.getTripId())) {
-					delay = new Delay();
-					Map delayMap = (Map)delays.get(t.getTripId());
-					for (Object type : delayMap.keySet()) {
-						delay.getValues().put(CreatorType.getAlertType(type.toString()),
-								(String)delayMap.get(type));
-					}
-				}
-				t.setDelay(delay);
-				result.add(t);
-			}
+	private <T> T coalesce(String service, String token, Callable<T> call) throws Exception {
+		if (singleFlight == null) {
+			return call.call();
 		}
+		return singleFlight.execute(service + '|' + token, call);
+	}
 
-		return result;
+	/**
+	 * @param json
+	 * @return
+	 */
+	private List<TripData> toTripDataList(String json) throws IOException {
+		return new TransitDecoder(idDictionary).readTripData(new StringReader(json));
 	}
 
 	/**
@@ -355,6 +628,16 @@ public class MobilityDataService {
 	public TimeTable getTimeTable(String agencyId, String routeId, long when, String token) throws MobilityServiceException {
 		if (routeId == null)
 			throw new MobilityServiceException("Incomplete request parameters");
+		if (timeTableStore != null) {
+			TimeTable stored = timeTableStore.get(agencyId, routeId, when);
+			if (stored != null) {
+				List<Delay> delays = getDelays(agencyId, routeId, when, token);
+				if (delays != null) {
+					stored.setDelays(delays);
+				}
+				return stored;
+			}
+		}
 		try {
 //			routeId = URLEncoder.encode(routeId, "utf8");
 			Calendar cal = Calendar.getInstance();
@@ -368,8 +651,16 @@ public class MobilityDataService {
 			cal.set(Calendar.SECOND, 59);
 			cal.set(Calendar.MILLISECOND, 999);
 			long to = cal.getTimeInMillis();
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(TRANSIT_TIMES, agencyId, routeId, from, to), token);
-			return toTimetable(json);
+			String json = transport.getJSON(serviceUrl, String.format(TRANSIT_TIMES, agencyId, routeId, from, to), token);
+			TimeTable result = toTimetable(json);
+			if (timeTableStore != null) {
+				try {
+					timeTableStore.put(agencyId, routeId, when, result);
+				} catch (IOException e) {
+					// the store is an optimization: the timetable is read again next time
+				}
+			}
+			return result;
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -381,51 +672,34 @@ public class MobilityDataService {
 	 * @param json
 	 * @return
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private TimeTable toTimetable(String json) {
-		TimeTable tt = new TimeTable();
-		Map map = JsonUtils.toObject(json, Map.class);
-		tt.setStops(JsonUtils.convert(map.get("stops"), List.class));
-		tt.setStopsId(JsonUtils.convert(map.get("stopsId"), List.class));
-		List list = (List)map.get("tripIds");
-		tt.setTripIds(JsonUtils.convert(list.get(0), List.class));
-		list = (List)map.get("times");
-		tt.setTimes(JsonUtils.convert(list.get(0), List.class));
-		list = (List)map.get("delays");
-		tt.setDelays(new ArrayList<Delay>());
-		for (Object o : (List)list.get(0)) {
-			Map<String,String> om = JsonUtils.convert(o, Map.class);
-			Delay d = new Delay();
-			d.setValues(new HashMap<CreatorType, String>());
-			if (om != null) {
-				for (String key : om.keySet())
-					d.getValues().put(CreatorType.getAlertType(key), om.get(key));
+	private TimeTable toTimetable(String json) throws IOException {
+		return new TransitDecoder(idDictionary).readTimeTable(new StringReader(json));
+	}
+
+	private <T> List<T> internIds(List<T> list) {
+		if (idDictionary == null || list == null) return list;
+		for (T o : list) {
+			if (o instanceof Stop) {
+				Stop s = (Stop) o;
+				s.setId(idDictionary.intern(s.getId()));
+			} else if (o instanceof Route) {
+				Route r = (Route) o;
+				if (r.getId() != null) {
+					r.getId().setId(idDictionary.intern(r.getId().getId()));
+					r.getId().setAgency(idDictionary.intern(r.getId().getAgency()));
+				}
+				r.setRouteShortName(idDictionary.intern(r.getRouteShortName()));
 			}
-			tt.getDelays().add(d);
 		}
-		return tt;
+		return list;
 	}
 	
 	/**
 	 * @param json
 	 * @return
 	 */
-	@SuppressWarnings({ "rawtypes" })
-	private List<Delay> toDelays(String json) {
-		Map map = JsonUtils.toObject(json, Map.class);
-		List list = (List)map.get("delays");
-		List<Delay> result = new ArrayList<Delay>();
-		for (Object o : (List)list.get(0)) {
-			Map<String,String> om = JsonUtils.convert(o, Map.class);
-			Delay d = new Delay();
-			d.setValues(new HashMap<CreatorType, String>());
-			if (om != null) {
-				for (String key : om.keySet())
-					d.getValues().put(CreatorType.getAlertType(key), om.get(key));
-			}
-			result.add(d);
-		}
-		return result;
+	private List<Delay> toDelays(String json) throws IOException {
+		return new TransitDecoder(idDictionary).readDelays(new StringReader(json));
 	}
 
 	/**
@@ -437,11 +711,25 @@ public class MobilityDataService {
 	 * @throws MobilityServiceException
 	 */
 	public List<Delay> getDelays(String agencyId, String routeId, String token) throws MobilityServiceException {
+		return getDelays(agencyId, routeId, System.currentTimeMillis(), token);
+	}
+
+	/**
+	 * Provides information about the delays for the specified route on the day of the specified time
+	 * @param agencyId
+	 * @param routeId
+	 * @param when time within the day
+	 * @param token
+	 * @return delays of the trips in the order of the timetable of the day
+	 * @throws MobilityServiceException
+	 */
+	public List<Delay> getDelays(String agencyId, String routeId, long when, String token) throws MobilityServiceException {
 		if (routeId == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
 //			routeId = URLEncoder.encode(routeId, "utf8");
 			Calendar cal = Calendar.getInstance();
+			cal.setTimeInMillis(when);
 			cal.set(Calendar.HOUR_OF_DAY, 0);
 			cal.set(Calendar.MINUTE, 0);
 			cal.set(Calendar.SECOND, 0);
@@ -451,7 +739,7 @@ public class MobilityDataService {
 			cal.set(Calendar.SECOND, 59);
 			cal.set(Calendar.MILLISECOND, 999);
 			long to = cal.getTimeInMillis();
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(TRANSIT_DELAYS, agencyId, routeId, from, to), token);
+			String json = transport.getJSON(serviceUrl, String.format(TRANSIT_DELAYS, agencyId, routeId, from, to), token);
 			return toDelays(json);
 		}catch (SecurityException e) {
 			throw e;
@@ -473,14 +761,9 @@ public class MobilityDataService {
 			throw new MobilityServiceException("Incomplete request parameters");
 		}
 		try {
-		URL url = new URL(serviceUrl + String.format(ROUTES_DB, appId));
-
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		conn.setRequestMethod("GET");
-		conn.setRequestProperty(AUTHORIZATION, BEARER + token);
-		conn.setDoInput(true);
-
-		return conn.getInputStream();
+			return transport.getStream(serviceUrl, String.format(ROUTES_DB, appId), token);
+		}catch (SecurityException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new MobilityServiceException(e);
 		}
@@ -499,20 +782,56 @@ public class MobilityDataService {
 			throw new MobilityServiceException("Incomplete request parameters");
 		}
 		try {
-		URL url = new URL(serviceUrl + String.format(EXTENDED_ROUTES_DB, appId));
-
-		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-		conn.setRequestMethod("GET");
-		conn.setRequestProperty(AUTHORIZATION, BEARER + token);
-		conn.setDoOutput(true);
-		conn.setDoInput(true);
-
-		return conn.getInputStream();
+			return transport.getStream(serviceUrl, String.format(EXTENDED_ROUTES_DB, appId), token);
+		}catch (SecurityException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new MobilityServiceException(e);
 		}
 
 	}		
+
+	/**
+	 * Download the zipped DB for a specified application Id to a file. Interrupted downloads
+	 * are resumed, and the target file is replaced only once the new DB is complete and verified.
+	 * @param appId
+	 * @param target file to write
+	 * @param token
+	 * @return size of the DB
+	 * @throws MobilityServiceException
+	 */
+	public long downloadRoutesDB(String appId, File target, String token) throws MobilityServiceException {
+		if (appId == null || target == null) {
+			throw new MobilityServiceException("Incomplete request parameters");
+		}
+		return download(String.format(ROUTES_DB, appId), target, token);
+	}	
+
+	/**
+	 * Download the zipped extended DB for a specified application Id to a file. Interrupted downloads
+	 * are resumed, and the target file is replaced only once the new DB is complete and verified.
+	 * @param appId
+	 * @param target file to write
+	 * @param token
+	 * @return size of the DB
+	 * @throws MobilityServiceException
+	 */
+	public long downloadExtendedRoutesDB(String appId, File target, String token) throws MobilityServiceException {
+		if (appId == null || target == null) {
+			throw new MobilityServiceException("Incomplete request parameters");
+		}
+		return download(String.format(EXTENDED_ROUTES_DB, appId), target, token);
+	}	
+
+	private long download(String service, File target, String token) throws MobilityServiceException {
+		try {
+			return new FileDownloader(transport, DOWNLOAD_ATTEMPTS).download(serviceUrl, service, token, target, true);
+		}catch (SecurityException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MobilityServiceException(e);
+		}
+	}
 	
 	
 	/**
@@ -523,8 +842,12 @@ public class MobilityDataService {
 	 */
 	public Map<String, Long> getVersions(String token) throws MobilityServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, VERSIONS, token);
-			return JsonUtils.toObject(json, Map.class);
+			String json = transport.getJSON(serviceUrl, VERSIONS, token);
+			Map<String, Long> versions = JsonUtils.toObject(json, Map.class);
+			if (responseCache != null && versions != null) {
+				responseCache.updateVersions(versions);
+			}
+			return versions;
 		}catch (SecurityException e) {
 			throw e;
 		} catch (Exception e) {
@@ -533,6 +856,51 @@ public class MobilityDataService {
 
 	}	
 
+	/**
+	 * Return the cache updates available for the agencies with respect to the specified local versions
+	 * @param versions map of agency Ids to the local cache versions
+	 * @param token
+	 * @return map of agency Ids to the {@link CacheUpdateResponse} descriptors
+	 * @throws MobilityServiceException
+	 */
+	public Map<String, CacheUpdateResponse> getCacheStatus(Map<String, String> versions, String token) throws MobilityServiceException {
+		if (versions == null) throw new MobilityServiceException("Incomplete request parameters");
+		try {
+			String json = transport.postJSON(serviceUrl, CACHE_STATUS, JsonUtils.toJSON(versions), token);
+			Map<String, Object> map = JsonUtils.toObject(json, Map.class);
+			Map<String, CacheUpdateResponse> result = new HashMap<String, CacheUpdateResponse>();
+			if (map != null) {
+				for (String agencyId : map.keySet()) {
+					result.put(agencyId, JsonUtils.convert(map.get(agencyId), CacheUpdateResponse.class));
+				}
+			}
+			return result;
+		}catch (SecurityException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MobilityServiceException(e);
+		}
+	}	
+
+	/**
+	 * Return the content of a single agency cache update 
+	 * @param agencyId
+	 * @param updateId id of the update as listed in {@link CacheUpdateResponse#getAdded()}
+	 * @param token
+	 * @return JSON content of the update
+	 * @throws MobilityServiceException
+	 */
+	public String getCacheUpdate(String agencyId, String updateId, String token) throws MobilityServiceException {
+		if (agencyId == null || updateId == null) throw new MobilityServiceException("Incomplete request parameters");
+		try {
+			return transport.getJSON(serviceUrl, String.format(CACHE_UPDATE, agencyId, updateId), token);
+		}catch (SecurityException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MobilityServiceException(e);
+		}
+	}	
+
 	/**
 	 * Return the taxi information
 	 * @param token
@@ -541,7 +909,7 @@ public class MobilityDataService {
 	 */
 	public List<TaxiContact> getTaxiAgencyContacts(String token) throws MobilityServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, TAXIINFO, token);
+			String json = transport.getJSON(serviceUrl, TAXIINFO, token);
 			return JsonUtils.toObjectList(json, TaxiContact.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -559,7 +927,7 @@ public class MobilityDataService {
 	 */
 	public List<TaxiStation> getTaxiStops(String token) throws MobilityServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, TAXIINFO, token);
+			String json = transport.getJSON(serviceUrl, TAXISTOPS, token);
 			return JsonUtils.toObjectList(json, TaxiStation.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory of the executors to be used with the asynchronous service API 
+ * (see {@link AsyncMobilityDataService}). 
+ * <p>
+ * In {@link ExecutionMode#VIRTUAL} mode each call runs on its own virtual thread 
+ * (Java 21+), so that thousands of concurrent blocking calls do not tie up platform threads. 
+ * The library code holds monitors only around in-memory state, never across the remote calls 
+ * (the caches perform their loads and version checks outside any monitor), hence the virtual 
+ * threads are not pinned to their carrier while waiting for the server response 
+ * (check with <code>-Djdk.tracePinnedThreads=full</code>).
+ * 
+ * @author raman
+ *
+ */
+public class MobilityExecutors {
+
+	/**
+	 * Execution mode of the blocking service calls
+	 */
+	public enum ExecutionMode {
+		/** bounded pool of platform threads */
+		PLATFORM, 
+		/** one virtual thread per call, requires Java 21+ */
+		VIRTUAL
+	}
+
+	private static final Method VIRTUAL_EXECUTOR_FACTORY = findVirtualExecutorFactory();
+
+	private MobilityExecutors() {
+	}
+
+	/**
+	 * @return true if the running JVM supports virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return VIRTUAL_EXECUTOR_FACTORY != null;
+	}
+
+	/**
+	 * Create an executor for the specified mode.
+	 * @param mode execution mode
+	 * @param platformThreads number of threads in {@link ExecutionMode#PLATFORM} mode, ignored otherwise
+	 * @return
+	 */
+	public static ExecutorService newExecutor(ExecutionMode mode, int platformThreads) {
+		if (mode == ExecutionMode.VIRTUAL) {
+			return newVirtualThreadExecutor();
+		}
+		return Executors.newFixedThreadPool(platformThreads);
+	}
+
+	/**
+	 * Create an executor starting a new virtual thread for each task.
+	 * @return
+	 * @throws UnsupportedOperationException if the JVM does not support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		if (VIRTUAL_EXECUTOR_FACTORY == null) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+		}
+		try {
+			return (ExecutorService) VIRTUAL_EXECUTOR_FACTORY.invoke(null);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException("Virtual threads not available", e);
+		}
+	}
+
+	// resolved reflectively to keep the library compatible with the older Java targets
+	private static Method findVirtualExecutorFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Result of an asynchronous service call. Besides the standard {@link java.util.concurrent.Future} 
+ * methods allows for registering callbacks notified upon completion, so that the caller
+ * does not need to block on {@link #get()}.
+ * 
+ * @author raman
+ *
+ * @param <T> type of the call result
+ */
+public class MobilityFuture<T> extends FutureTask<T> {
+
+	private List<MobilityCallback<T>> callbacks = new ArrayList<MobilityCallback<T>>(1);
+
+	/**
+	 * @param callable
+	 */
+	public MobilityFuture(Callable<T> callable) {
+		super(callable);
+	}
+
+	/**
+	 * Register a callback. If the call is already completed, the callback is invoked immediately
+	 * in the calling thread, otherwise it is invoked by the thread completing the call.
+	 * @param callback
+	 * @return this future
+	 */
+	public MobilityFuture<T> addCallback(MobilityCallback<T> callback) {
+		synchronized (callbacks) {
+			if (!isDone()) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		notify(callback);
+		return this;
+	}
+
+	@Override
+	protected void done() {
+		List<MobilityCallback<T>> copy;
+		synchronized (callbacks) {
+			copy = new ArrayList<MobilityCallback<T>>(callbacks);
+			callbacks.clear();
+		}
+		for (MobilityCallback<T> callback : copy) {
+			notify(callback);
+		}
+	}
+
+	private void notify(MobilityCallback<T> callback) {
+		T result;
+		try {
+			result = get();
+		} catch (ExecutionException e) {
+			callback.onFailure(e.getCause());
+			return;
+		} catch (Throwable e) {
+			callback.onFailure(e);
+			return;
+		}
+		callback.onSuccess(result);
+	}
+}
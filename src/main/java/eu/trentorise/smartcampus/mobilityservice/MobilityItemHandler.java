@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+/**
+ * Handler of the elements of a streamed service response. Elements are passed
+ * one at a time as soon as they are decoded.
+ * 
+ * @author raman
+ *
+ * @param <T> type of the element
+ */
+public interface MobilityItemHandler<T> {
+
+	/**
+	 * @param item decoded element
+	 */
+	void onItem(T item);
+}
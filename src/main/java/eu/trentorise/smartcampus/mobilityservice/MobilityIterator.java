@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import eu.trentorise.smartcampus.mobilityservice.json.JsonReader;
+import eu.trentorise.smartcampus.network.JsonUtils;
+
+/**
+ * Iterator over the elements of a JSON array response, decoded one at a time 
+ * directly from the response stream. Only the current element is kept in memory.
+ * The iterator is closed automatically when all the elements are consumed, otherwise
+ * it should be closed explicitly to release the connection.
+ * <p>
+ * I/O and decoding errors are thrown as {@link IllegalStateException} with the original cause.
+ * 
+ * @author raman
+ *
+ * @param <T> type of the elements
+ */
+public class MobilityIterator<T> implements Iterator<T>, Closeable {
+
+	private JsonReader reader;
+	private Class<T> type;
+	private boolean closed;
+
+	/**
+	 * @param in response stream, positioned at the beginning of a JSON array
+	 * @param type element class
+	 * @throws IOException
+	 */
+	public MobilityIterator(InputStream in, Class<T> type) throws IOException {
+		this.type = type;
+		this.reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+		try {
+			reader.beginArray();
+		} catch (IOException e) {
+			reader.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		try {
+			if (reader.hasNext()) {
+				return true;
+			}
+			reader.endArray();
+			close();
+			return false;
+		} catch (IOException e) {
+			closeQuietly();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		try {
+			return JsonUtils.convert(reader.readValue(), type);
+		} catch (IOException e) {
+			closeQuietly();
+			throw new IllegalStateException(e);
+		} catch (RuntimeException e) {
+			// conversion error (e.g., type mismatch)
+			closeQuietly();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			reader.close();
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
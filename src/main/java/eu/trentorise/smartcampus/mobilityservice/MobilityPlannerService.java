@@ -22,8 +22,9 @@ import it.sayservice.platform.smartplanner.data.message.journey.SingleJourney;
 
 import java.util.List;
 
+import eu.trentorise.smartcampus.mobilityservice.transport.MobilityTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.RemoteConnectorTransport;
 import eu.trentorise.smartcampus.network.JsonUtils;
-import eu.trentorise.smartcampus.network.RemoteConnector;
 
 
 /**
@@ -40,16 +41,27 @@ public class MobilityPlannerService {
 	private static final String RECURRENT = "planrecurrent";
 
 	private String serviceUrl;
+	private MobilityTransport transport;
 
 	/**
 	 * 
 	 * @param serviceUrl service address
 	 */
 	public MobilityPlannerService(String serviceUrl) {
+		this(serviceUrl, new RemoteConnectorTransport());
+	}
+
+	/**
+	 * 
+	 * @param serviceUrl service address
+	 * @param transport transport used to perform remote calls, may be shared among services
+	 */
+	public MobilityPlannerService(String serviceUrl, MobilityTransport transport) {
 		this.serviceUrl = serviceUrl;
 		if (!serviceUrl.endsWith("/")) {
 			this.serviceUrl += '/';
 		}
+		this.transport = transport;
 	}
 
 	/**
@@ -63,7 +75,7 @@ public class MobilityPlannerService {
 		if (request == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.postJSON(serviceUrl, SINGLE, JsonUtils.toJSON(request), token);
+			String json = transport.postJSON(serviceUrl, SINGLE, JsonUtils.toJSON(request), token);
 			return JsonUtils.toObjectList(json, Itinerary.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -83,7 +95,7 @@ public class MobilityPlannerService {
 		if (request == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.postJSON(serviceUrl, RECURRENT, JsonUtils.toJSON(request), token);
+			String json = transport.postJSON(serviceUrl, RECURRENT, JsonUtils.toJSON(request), token);
 			return JsonUtils.toObject(json, RecurrentJourney.class);
 		}catch (SecurityException e) {
 			throw e;
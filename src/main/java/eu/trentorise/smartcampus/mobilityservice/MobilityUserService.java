@@ -21,8 +21,9 @@ import java.util.List;
 
 import eu.trentorise.smartcampus.mobilityservice.model.BasicItinerary;
 import eu.trentorise.smartcampus.mobilityservice.model.BasicRecurrentJourney;
+import eu.trentorise.smartcampus.mobilityservice.transport.MobilityTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.RemoteConnectorTransport;
 import eu.trentorise.smartcampus.network.JsonUtils;
-import eu.trentorise.smartcampus.network.RemoteConnector;
 
 
 /**
@@ -41,16 +42,27 @@ public class MobilityUserService {
 	private static final String RECURRENT_JOURNEY_MONITOR = "recurrent/%s/monitor/%s";
 
 	private String serviceUrl;
+	private MobilityTransport transport;
 
 	/**
 	 * 
 	 * @param serviceUrl service address
 	 */
 	public MobilityUserService(String serviceUrl) {
+		this(serviceUrl, new RemoteConnectorTransport());
+	}
+
+	/**
+	 * 
+	 * @param serviceUrl service address
+	 * @param transport transport used to perform remote calls, may be shared among services
+	 */
+	public MobilityUserService(String serviceUrl, MobilityTransport transport) {
 		this.serviceUrl = serviceUrl;
 		if (!serviceUrl.endsWith("/")) {
 			this.serviceUrl += '/';
 		}
+		this.transport = transport;
 	}
 
 	/**
@@ -65,7 +77,7 @@ public class MobilityUserService {
 		if (input == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.postJSON(serviceUrl, SINGLE_JOURNEY, JsonUtils.toJSON(input), token);
+			String json = transport.postJSON(serviceUrl, SINGLE_JOURNEY, JsonUtils.toJSON(input), token);
 			return JsonUtils.toObject(json, BasicItinerary.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -82,7 +94,7 @@ public class MobilityUserService {
 	 */
 	public List<BasicItinerary> getSingleJourneys(String token) throws MobilityServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, SINGLE_JOURNEY, token);
+			String json = transport.getJSON(serviceUrl, SINGLE_JOURNEY, token);
 			return JsonUtils.toObjectList(json,BasicItinerary.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -102,7 +114,7 @@ public class MobilityUserService {
 		if (id == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(SINGLE_JOURNEY_P, id), token);
+			String json = transport.getJSON(serviceUrl, String.format(SINGLE_JOURNEY_P, id), token);
 			return JsonUtils.toObject(json, BasicItinerary.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -122,7 +134,7 @@ public class MobilityUserService {
 		if (id == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, String.format(SINGLE_JOURNEY_P, id), token);
+			String json = transport.deleteJSON(serviceUrl, String.format(SINGLE_JOURNEY_P, id), token);
 			return Boolean.valueOf(json);
 		}catch (SecurityException e) {
 			throw e;
@@ -143,7 +155,7 @@ public class MobilityUserService {
 		if (id == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(SINGLE_JOURNEY_MONITOR, id, monitor), token);
+			String json = transport.getJSON(serviceUrl, String.format(SINGLE_JOURNEY_MONITOR, id, monitor), token);
 			return Boolean.valueOf(json);
 		}catch (SecurityException e) {
 			throw e;
@@ -164,7 +176,7 @@ public class MobilityUserService {
 		if (input == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.postJSON(serviceUrl, RECURRENT_JOURNEY, JsonUtils.toJSON(input), token);
+			String json = transport.postJSON(serviceUrl, RECURRENT_JOURNEY, JsonUtils.toJSON(input), token);
 			return JsonUtils.toObject(json,BasicRecurrentJourney.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -181,7 +193,7 @@ public class MobilityUserService {
 	 */
 	public List<BasicRecurrentJourney> getRecurrentJourneys(String token) throws MobilityServiceException {
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, RECURRENT_JOURNEY, token);
+			String json = transport.getJSON(serviceUrl, RECURRENT_JOURNEY, token);
 			return JsonUtils.toObjectList(json, BasicRecurrentJourney.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -201,7 +213,7 @@ public class MobilityUserService {
 		if (id == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(RECURRENT_JOURNEY_P, id), token);
+			String json = transport.getJSON(serviceUrl, String.format(RECURRENT_JOURNEY_P, id), token);
 			return JsonUtils.toObject(json,BasicRecurrentJourney.class);
 		}catch (SecurityException e) {
 			throw e;
@@ -221,7 +233,7 @@ public class MobilityUserService {
 		if (id == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.deleteJSON(serviceUrl, String.format(RECURRENT_JOURNEY_P, id), token);
+			String json = transport.deleteJSON(serviceUrl, String.format(RECURRENT_JOURNEY_P, id), token);
 			return Boolean.valueOf(json);
 		}catch (SecurityException e) {
 			throw e;
@@ -242,7 +254,7 @@ public class MobilityUserService {
 		if (id == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.getJSON(serviceUrl, String.format(RECURRENT_JOURNEY_MONITOR, id, monitor), token);
+			String json = transport.getJSON(serviceUrl, String.format(RECURRENT_JOURNEY_MONITOR, id, monitor), token);
 			return Boolean.valueOf(json);
 		}catch (SecurityException e) {
 			throw e;
@@ -263,7 +275,7 @@ public class MobilityUserService {
 		if (input == null || id == null)
 			throw new MobilityServiceException("Incomplete request parameters");
 		try {
-			String json = RemoteConnector.putJSON(serviceUrl, String.format(RECURRENT_JOURNEY_P, id), JsonUtils.toJSON(input), token);
+			String json = transport.putJSON(serviceUrl, String.format(RECURRENT_JOURNEY_P, id), JsonUtils.toJSON(input), token);
 			return Boolean.valueOf(json);
 		}catch (SecurityException e) {
 			throw e;
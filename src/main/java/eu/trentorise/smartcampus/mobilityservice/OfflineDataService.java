@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Route;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Stop;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.trentorise.smartcampus.mobilityservice.model.Delay;
+import eu.trentorise.smartcampus.mobilityservice.model.StopDepartures;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeUtils;
+import eu.trentorise.smartcampus.mobilityservice.model.TripData;
+
+/**
+ * Local query engine over the schedule of an agency for a given day. The agency routes, 
+ * their stops and their timetables are read once with {@link #index(String, long, String)}
+ * (from the persistent stores of the {@link MobilityDataService}, if enabled) and indexed 
+ * in primitive arrays per stop, so that the routes, stops, stop times and next trips are 
+ * then answered without remote calls. Only the real-time delays are read from the server, 
+ * on request.
+ * 
+ * @author raman
+ *
+ */
+public class OfflineDataService {
+
+	private static final long MINUTE = 60 * 1000L;
+
+	private final MobilityDataService dataService;
+	private final Map<String, AgencyIndex> indexes = new ConcurrentHashMap<String, AgencyIndex>();
+
+	/**
+	 * @param dataService service used to read the data to index and the real-time delays
+	 */
+	public OfflineDataService(MobilityDataService dataService) {
+		this.dataService = dataService;
+	}
+
+	/**
+	 * Read and index the routes, stops and timetables of the agency for the day, replacing
+	 * the previous index of the agency.
+	 * @param agencyId
+	 * @param when time within the day to index
+	 * @param token user or client access token
+	 * @throws MobilityServiceException
+	 */
+	public void index(String agencyId, long when, String token) throws MobilityServiceException {
+		if (agencyId == null)
+			throw new MobilityServiceException("Incomplete request parameters");
+		List<Route> routes = dataService.getRoutes(agencyId, token);
+		Map<String, List<Stop>> stops = new HashMap<String, List<Stop>>();
+		Map<String, TimeTable> timeTables = new LinkedHashMap<String, TimeTable>();
+		for (Route route : routes) {
+			String routeId = route.getId().getId();
+			stops.put(routeId, dataService.getStops(agencyId, routeId, token));
+			timeTables.put(routeId, dataService.getTimeTable(agencyId, routeId, when, token));
+		}
+		indexes.put(agencyId, new AgencyIndex(agencyId, startOfDay(when), routes, stops, timeTables));
+	}
+
+	/**
+	 * @param agencyId
+	 * @return start of the indexed day, null if the agency is not indexed
+	 */
+	public Long getIndexedDay(String agencyId) {
+		AgencyIndex index = indexes.get(agencyId);
+		return index == null ? null : index.day;
+	}
+
+	/**
+	 * @see MobilityDataService#getRoutes(String, String)
+	 */
+	public List<Route> getRoutes(String agencyId) throws MobilityServiceException {
+		return getIndex(agencyId).routes;
+	}
+
+	/**
+	 * @see MobilityDataService#getStops(String, String, String)
+	 */
+	public List<Stop> getStops(String agencyId, String routeId) throws MobilityServiceException {
+		List<Stop> stops = getIndex(agencyId).stops.get(routeId);
+		return stops == null ? Collections.<Stop>emptyList() : stops;
+	}
+
+	/**
+	 * Scheduled times of the route at the stop within the specified period.
+	 * @see MobilityDataService#getStopTimes(String, String, String, String)
+	 * @param agencyId
+	 * @param routeId
+	 * @param stopId
+	 * @param from start of the period
+	 * @param to end of the period
+	 * @return {@link TripData} instances ordered by time, without delays
+	 * @throws MobilityServiceException
+	 */
+	public List<TripData> getStopTimes(String agencyId, String routeId, String stopId, long from, long to) throws MobilityServiceException {
+		if (routeId == null || stopId == null)
+			throw new MobilityServiceException("Incomplete request parameters");
+		AgencyIndex index = getIndex(agencyId);
+		List<TripData> result = new ArrayList<TripData>();
+		StopDepartures departures = index.departures.get(stopId);
+		if (departures == null) return result;
+		Integer route = index.routeIndex.get(routeId);
+		if (route == null) return result;
+		for (int i = departures.search(index.toMinutes(from)); i < departures.size() && departures.getMinutes(i) <= index.toMinutes(to); i++) {
+			if (index.tripRoutes[departures.getTrip(i)] == route) {
+				result.add(index.toTripData(departures, i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Scheduled trips passing the stop after the specified time.
+	 * @see MobilityDataService#getNextTrips(String, String, Integer, String)
+	 * @param agencyId
+	 * @param stopId
+	 * @param maxResults number of trips per route to return
+	 * @param when time of the request
+	 * @return {@link TripData} instances ordered by time, without delays
+	 * @throws MobilityServiceException
+	 */
+	public List<TripData> getNextTrips(String agencyId, String stopId, int maxResults, long when) throws MobilityServiceException {
+		if (stopId == null)
+			throw new MobilityServiceException("Incomplete request parameters");
+		AgencyIndex index = getIndex(agencyId);
+		List<TripData> result = new ArrayList<TripData>();
+		StopDepartures departures = index.departures.get(stopId);
+		if (departures == null) return result;
+		int[] counts = new int[index.routeIds.length];
+		int complete = 0;
+		for (int i = departures.search(index.toMinutes(when)); i < departures.size() && complete < counts.length; i++) {
+			int route = index.tripRoutes[departures.getTrip(i)];
+			if (counts[route] < maxResults) {
+				result.add(index.toTripData(departures, i));
+				if (++counts[route] == maxResults) complete++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Scheduled trips passing the stop after the specified time, with the delays of the 
+	 * indexed day read from the server (one call for each route in the result).
+	 * @see #getNextTrips(String, String, int, long)
+	 * @param token user or client access token
+	 */
+	public List<TripData> getNextTrips(String agencyId, String stopId, int maxResults, long when, String token) throws MobilityServiceException {
+		List<TripData> result = getNextTrips(agencyId, stopId, maxResults, when);
+		AgencyIndex index = getIndex(agencyId);
+		Map<String, List<Delay>> delays = new HashMap<String, List<Delay>>();
+		for (TripData trip : result) {
+			List<Delay> routeDelays = delays.get(trip.getRouteId());
+			if (routeDelays == null) {
+				routeDelays = dataService.getDelays(agencyId, trip.getRouteId(), index.day, token);
+				delays.put(trip.getRouteId(), routeDelays);
+			}
+			int position = index.tripPosition(trip.getRouteId(), trip.getTripId());
+			if (routeDelays != null && position >= 0 && position < routeDelays.size()) {
+				Delay delay = routeDelays.get(position);
+				trip.setDelay(delay == null || !delay.hasDelay() ? null : delay);
+			}
+		}
+		return result;
+	}
+
+	private AgencyIndex getIndex(String agencyId) throws MobilityServiceException {
+		AgencyIndex index = agencyId == null ? null : indexes.get(agencyId);
+		if (index == null) {
+			throw new MobilityServiceException("Agency not indexed: " + agencyId);
+		}
+		return index;
+	}
+
+	private static long startOfDay(long when) {
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(when);
+		cal.set(Calendar.HOUR_OF_DAY, 0);
+		cal.set(Calendar.MINUTE, 0);
+		cal.set(Calendar.SECOND, 0);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTimeInMillis();
+	}
+
+	/**
+	 * Indexed data of an agency
+	 */
+	private static class AgencyIndex {
+		private final String agencyId;
+		private final long day;
+		private final List<Route> routes;
+		private final Map<String, List<Stop>> stops;
+		private final String[] routeIds;
+		private final String[] routeNames;
+		private final String[] routeShortNames;
+		private final Map<String, Integer> routeIndex = new HashMap<String, Integer>();
+		private final String[] tripIds;
+		private final int[] tripRoutes;
+		private final Map<String, Map<String, Integer>> tripPositions = new HashMap<String, Map<String, Integer>>();
+		private final Map<String, StopDepartures> departures = new HashMap<String, StopDepartures>();
+
+		public AgencyIndex(String agencyId, long day, List<Route> routes, Map<String, List<Stop>> stops, Map<String, TimeTable> timeTables) {
+			this.agencyId = agencyId;
+			this.day = day;
+			this.routes = Collections.unmodifiableList(new ArrayList<Route>(routes));
+			this.stops = new HashMap<String, List<Stop>>();
+			for (String routeId : stops.keySet()) {
+				this.stops.put(routeId, Collections.unmodifiableList(new ArrayList<Stop>(stops.get(routeId))));
+			}
+			routeIds = new String[routes.size()];
+			routeNames = new String[routes.size()];
+			routeShortNames = new String[routes.size()];
+			for (int r = 0; r < routes.size(); r++) {
+				Route route = routes.get(r);
+				routeIds[r] = route.getId().getId();
+				routeNames[r] = route.getRouteLongName();
+				routeShortNames[r] = route.getRouteShortName();
+				routeIndex.put(routeIds[r], r);
+			}
+
+			List<String> trips = new ArrayList<String>();
+			List<Integer> tripRouteList = new ArrayList<Integer>();
+			for (int r = 0; r < routeIds.length; r++) {
+				TimeTable tt = timeTables.get(routeIds[r]);
+				if (tt == null || tt.getTripIds() == null || tt.getTimes() == null || tt.getStopsId() == null) continue;
+				Map<String, Integer> positions = new HashMap<String, Integer>();
+				tripPositions.put(routeIds[r], positions);
+				for (int t = 0; t < tt.getTripIds().size() && t < tt.getTimes().size(); t++) {
+					int trip = trips.size();
+					trips.add(tt.getTripIds().get(t));
+					tripRouteList.add(r);
+					positions.put(tt.getTripIds().get(t), t);
+					List<String> times = tt.getTimes().get(t);
+					if (times == null) continue;
+					for (int s = 0; s < times.size() && s < tt.getStopsId().size(); s++) {
+						int minutes = TimeUtils.parseMinutes(times.get(s));
+						if (minutes < 0) continue;
+						String stopId = tt.getStopsId().get(s);
+						StopDepartures d = departures.get(stopId);
+						if (d == null) {
+							d = new StopDepartures();
+							departures.put(stopId, d);
+						}
+						d.add(minutes, trip);
+					}
+				}
+			}
+			tripIds = trips.toArray(new String[trips.size()]);
+			tripRoutes = new int[tripRouteList.size()];
+			for (int t = 0; t < tripRoutes.length; t++) {
+				tripRoutes[t] = tripRouteList.get(t);
+			}
+			for (StopDepartures d : departures.values()) {
+				d.sort();
+			}
+		}
+
+		private int toMinutes(long time) {
+			return (int) Math.floor((time - day) / (double) MINUTE);
+		}
+
+		private int tripPosition(String routeId, String tripId) {
+			Map<String, Integer> positions = tripPositions.get(routeId);
+			Integer position = positions == null ? null : positions.get(tripId);
+			return position == null ? -1 : position;
+		}
+
+		private TripData toTripData(StopDepartures departures, int i) {
+			TripData t = new TripData();
+			int route = tripRoutes[departures.getTrip(i)];
+			t.setAgencyId(agencyId);
+			t.setRouteId(routeIds[route]);
+			t.setRouteName(routeNames[route]);
+			t.setRouteShortName(routeShortNames[route]);
+			t.setTripId(tripIds[departures.getTrip(i)]);
+			t.setTime(day + departures.getMinutes(i) * MINUTE);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Parking;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.trentorise.smartcampus.mobilityservice.MobilityDataService;
+import eu.trentorise.smartcampus.mobilityservice.MobilityServiceException;
+
+/**
+ * Per-agency cache of parking and bike sharing availability with stale-while-revalidate semantics:
+ * <ul>
+ * <li>snapshots younger than the max age are returned as they are;</li>
+ * <li>snapshots younger than the max stale age are returned immediately, while a single background refresh reads the next one;</li>
+ * <li>older (or missing) snapshots are read synchronously, with concurrent callers sharing the same remote call.</li>
+ * </ul>
+ * Availability is public data: snapshots are kept per agency and shared by all the callers, whatever 
+ * their token (the data is read with the token of the call triggering the load).
+ * 
+ * @author raman
+ *
+ */
+public class AvailabilityCache {
+
+	private final MobilityDataService dataService;
+	private final Executor executor;
+	private volatile long maxAge;
+	private volatile long maxStale;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final SingleFlight loads = new SingleFlight();
+	private final AtomicInteger refreshes = new AtomicInteger();
+
+	/**
+	 * @param dataService service used to read the data
+	 * @param executor executor of the background refreshes
+	 * @param maxAge age (in millis) within which a snapshot is fresh
+	 * @param maxStale age (in millis) within which a stale snapshot may be returned while refreshing
+	 */
+	public AvailabilityCache(MobilityDataService dataService, Executor executor, long maxAge, long maxStale) {
+		this.dataService = dataService;
+		this.executor = executor;
+		this.maxAge = maxAge;
+		this.maxStale = Math.max(maxAge, maxStale);
+	}
+
+	/**
+	 * @see MobilityDataService#getParkings(String, String)
+	 */
+	public Snapshot<Parking> getParkings(final String agencyId, final String token) throws MobilityServiceException {
+		return get("parkings/" + agencyId, new Callable<List<Parking>>() {
+			@Override
+			public List<Parking> call() throws Exception {
+				return dataService.getParkings(agencyId, token);
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getBikeSharings(String, String)
+	 */
+	public Snapshot<Parking> getBikeSharings(final String agencyId, final String token) throws MobilityServiceException {
+		return get("bikesharings/" + agencyId, new Callable<List<Parking>>() {
+			@Override
+			public List<Parking> call() throws Exception {
+				return dataService.getBikeSharings(agencyId, token);
+			}
+		});
+	}
+
+	/**
+	 * Drop all the snapshots
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return number of background refreshes performed
+	 */
+	public int getRefreshes() {
+		return refreshes.get();
+	}
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+		this.maxStale = Math.max(maxAge, maxStale);
+	}
+
+	public long getMaxStale() {
+		return maxStale;
+	}
+
+	public void setMaxStale(long maxStale) {
+		this.maxStale = Math.max(maxAge, maxStale);
+	}
+
+	private Snapshot<Parking> get(final String key, final Callable<List<Parking>> call) throws MobilityServiceException {
+		final Entry entry = getEntry(key);
+		// background and synchronous loads share the same key, so that an older read never replaces a newer one
+		final Callable<Snapshot<Parking>> loader = new Callable<Snapshot<Parking>>() {
+			@Override
+			public Snapshot<Parking> call() throws Exception {
+				return load(entry, call);
+			}
+		};
+		Snapshot<Parking> snapshot = entry.snapshot;
+		if (snapshot != null) {
+			long age = snapshot.getAge();
+			if (age <= maxAge) {
+				return snapshot;
+			}
+			if (age <= maxStale) {
+				if (entry.refreshing.compareAndSet(false, true)) {
+					try {
+						executor.execute(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									loads.execute(key, loader);
+									refreshes.incrementAndGet();
+								} catch (Exception e) {
+									// keep the stale snapshot, the next request retries
+								} finally {
+									entry.refreshing.set(false);
+								}
+							}
+						});
+					} catch (RuntimeException e) {
+						entry.refreshing.set(false);
+					}
+				}
+				return snapshot;
+			}
+		}
+		try {
+			return loads.execute(key, loader);
+		} catch (MobilityServiceException e) {
+			throw e;
+		} catch (SecurityException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MobilityServiceException(e);
+		}
+	}
+
+	private Snapshot<Parking> load(Entry entry, Callable<List<Parking>> call) throws Exception {
+		long timestamp = System.currentTimeMillis();
+		Snapshot<Parking> snapshot = new Snapshot<Parking>(call.call(), timestamp);
+		entry.snapshot = snapshot;
+		return snapshot;
+	}
+
+	private Entry getEntry(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			Entry created = new Entry();
+			entry = entries.putIfAbsent(key, created);
+			if (entry == null) entry = created;
+		}
+		return entry;
+	}
+
+	private static class Entry {
+		private volatile Snapshot<Parking> snapshot;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+	}
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.util.Map;
+
+/**
+ * Local store of the agency cache updates, kept in sync by {@link CacheSync}.
+ * 
+ * @author raman
+ *
+ */
+public interface CacheStore {
+
+	/**
+	 * @param agencyId
+	 * @return version of the agency data in the store, null if the agency has never been synchronized
+	 */
+	Long getVersion(String agencyId);
+
+	/**
+	 * Set the version of the agency data, after all the updates of that version have been applied
+	 * @param agencyId
+	 * @param version
+	 */
+	void setVersion(String agencyId, long version);
+
+	/**
+	 * Add or replace the update content
+	 * @param agencyId
+	 * @param updateId
+	 * @param content JSON content of the update
+	 */
+	void put(String agencyId, String updateId, String content);
+
+	/**
+	 * Remove the update content 
+	 * @param agencyId
+	 * @param updateId
+	 */
+	void remove(String agencyId, String updateId);
+
+	/**
+	 * Add or replace the agency calendars
+	 * @param agencyId
+	 * @param calendars
+	 */
+	void putCalendars(String agencyId, Map<String, String> calendars);
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import it.sayservice.platform.smartplanner.data.message.cache.CacheUpdateResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import eu.trentorise.smartcampus.mobilityservice.MobilityDataService;
+import eu.trentorise.smartcampus.mobilityservice.MobilityServiceException;
+
+/**
+ * Incremental synchronization of a {@link CacheStore} with the server cache: reads the 
+ * cache status for the local agency versions and downloads only the updates
+ * added after those versions, instead of the whole routes DB.
+ * <p>
+ * The updates of an agency are downloaded before being applied, and the agency version 
+ * is stored last, so that a failed synchronization is simply repeated by the next one.
+ * No lock is held during the remote calls: the downloaded updates are applied under a lock, 
+ * and only if no concurrent synchronization has already stored the same or a newer version.
+ * 
+ * @author raman
+ *
+ */
+public class CacheSync {
+
+	private final MobilityDataService dataService;
+	private final CacheStore store;
+	private final List<String> agencyIds;
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * @param dataService service used to read the cache status and the updates
+	 * @param store local store to update
+	 * @param agencyIds agencies to synchronize
+	 */
+	public CacheSync(MobilityDataService dataService, CacheStore store, List<String> agencyIds) {
+		this.dataService = dataService;
+		this.store = store;
+		this.agencyIds = new ArrayList<String>(agencyIds);
+	}
+
+	/**
+	 * Synchronize the store with the server cache.
+	 * @param token client access token
+	 * @return map of the agency Ids to the applied updates, empty if the store is up to date
+	 * @throws MobilityServiceException
+	 */
+	public Map<String, CacheUpdateResponse> sync(String token) throws MobilityServiceException {
+		Map<String, String> versions = new HashMap<String, String>();
+		for (String agencyId : agencyIds) {
+			Long version = store.getVersion(agencyId);
+			versions.put(agencyId, version == null ? "0" : version.toString());
+		}
+		Map<String, CacheUpdateResponse> status = dataService.getCacheStatus(versions, token);
+
+		Map<String, CacheUpdateResponse> applied = new LinkedHashMap<String, CacheUpdateResponse>();
+		for (String agencyId : agencyIds) {
+			CacheUpdateResponse update = status.get(agencyId);
+			if (update == null) continue;
+			Long version = store.getVersion(agencyId);
+			if (version != null && update.getVersion() <= version) continue;
+
+			Map<String, String> contents = new LinkedHashMap<String, String>();
+			if (update.getAdded() != null) {
+				for (String updateId : update.getAdded()) {
+					contents.put(updateId, dataService.getCacheUpdate(agencyId, updateId, token));
+				}
+			}
+			if (apply(agencyId, update, contents)) {
+				applied.put(agencyId, update);
+			}
+		}
+		return applied;
+	}
+
+	private boolean apply(String agencyId, CacheUpdateResponse update, Map<String, String> contents) {
+		lock.lock();
+		try {
+			Long version = store.getVersion(agencyId);
+			if (version != null && update.getVersion() <= version) {
+				// applied by a concurrent synchronization
+				return false;
+			}
+			if (update.getRemoved() != null) {
+				for (String updateId : update.getRemoved()) {
+					store.remove(agencyId, updateId);
+				}
+			}
+			for (String updateId : contents.keySet()) {
+				store.put(agencyId, updateId, contents.get(updateId));
+			}
+			if (update.getCalendars() != null) {
+				store.putCalendars(agencyId, update.getCalendars());
+			}
+			store.setVersion(agencyId, update.getVersion());
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the local store
+	 */
+	public CacheStore getStore() {
+		return store;
+	}
+}
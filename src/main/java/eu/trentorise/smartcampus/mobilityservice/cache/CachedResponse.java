@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+/**
+ * Decoded response stored in the {@link ResponseCache} together with its validators:
+ * HTTP ETag and Last-Modified values and the agency data version known when the
+ * response was obtained.
+ * 
+ * @author raman
+ *
+ */
+public class CachedResponse {
+
+	private String etag;
+	private String lastModified;
+	private Long version;
+	private Object value;
+
+	public CachedResponse(String etag, String lastModified, Long version, Object value) {
+		super();
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.version = version;
+		this.value = value;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+	public String getLastModified() {
+		return lastModified;
+	}
+	/**
+	 * @return agency data version the value corresponds to, null if unknown
+	 */
+	public Long getVersion() {
+		return version;
+	}
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+	/**
+	 * @return decoded response
+	 */
+	public Object getValue() {
+		return value;
+	}
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable grid index of geolocalized elements. Distances are computed on the 
+ * coordinates (in degrees); the results within the radius are ordered by distance 
+ * and paged.
+ * <p>
+ * Elements are sorted by grid cell (row, column) and their positions kept in primitive 
+ * arrays, so that the elements of a cell row range are found with a binary search.
+ * 
+ * @author raman
+ *
+ */
+public class GeoIndex<T> {
+
+	private final double cellSize;
+	private final T[] items;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final long[] cells;
+
+	/**
+	 * @param items elements to index
+	 * @param latitudes latitudes of the elements
+	 * @param longitudes longitudes of the elements
+	 * @param cellSize size of the grid cells, in degrees
+	 */
+	@SuppressWarnings("unchecked")
+	public GeoIndex(List<T> items, double[] latitudes, double[] longitudes, double cellSize) {
+		this.cellSize = cellSize;
+		int n = items.size();
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = cell(latitudes[i], longitudes[i]);
+		}
+		// sort the positions by cell
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) order[i] = i;
+		final long[] k = keys;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return k[a] < k[b] ? -1 : (k[a] == k[b] ? 0 : 1);
+			}
+		});
+		this.items = (T[]) new Object[n];
+		this.latitudes = new double[n];
+		this.longitudes = new double[n];
+		this.cells = new long[n];
+		for (int i = 0; i < n; i++) {
+			this.items[i] = items.get(order[i]);
+			this.latitudes[i] = latitudes[order[i]];
+			this.longitudes[i] = longitudes[order[i]];
+			this.cells[i] = keys[order[i]];
+		}
+	}
+
+	/**
+	 * @return number of indexed elements
+	 */
+	public int size() {
+		return items.length;
+	}
+
+	/**
+	 * @param latitude
+	 * @param longitude
+	 * @param radius radius in degrees
+	 * @return all the elements within the radius, ordered by distance
+	 */
+	public List<T> find(double latitude, double longitude, double radius) {
+		return find(latitude, longitude, radius, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param latitude
+	 * @param longitude
+	 * @param radius radius in degrees, non-positive for no limit
+	 * @param page page number (from 0)
+	 * @param pageSize page size
+	 * @return page of the elements within the radius, ordered by distance
+	 */
+	public List<T> find(double latitude, double longitude, double radius, int page, int pageSize) {
+		long needed = (long) page * pageSize + pageSize;
+		int[] found;
+		if (radius > 0) {
+			found = within(latitude, longitude, radius);
+		} else {
+			// nearest without limit: widen the search until enough elements are found,
+			// the elements within the radius being closer than any other
+			double r = cellSize;
+			found = within(latitude, longitude, r);
+			while (found.length < Math.min(needed, items.length)) {
+				r *= 2;
+				found = within(latitude, longitude, r);
+			}
+		}
+		// sort by distance: non-negative float bits keep the order, ties by cell order
+		long[] order = new long[found.length];
+		for (int i = 0; i < found.length; i++) {
+			order[i] = ((long) Float.floatToIntBits((float) distance(latitude, longitude, found[i])) << 32) | i;
+		}
+		Arrays.sort(order);
+		List<T> result = new ArrayList<T>();
+		for (long i = (long) page * pageSize; i < needed && i < order.length; i++) {
+			result.add(items[found[(int) order[(int) i]]]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return positions of the elements within the radius, in cell order
+	 */
+	private int[] within(double latitude, double longitude, double radius) {
+		int[] result = new int[16];
+		int size = 0;
+		long rowFrom = index(latitude - radius), rowTo = index(latitude + radius);
+		long colFrom = index(longitude - radius), colTo = index(longitude + radius);
+		double r2 = radius * radius;
+		for (long row = rowFrom; row <= rowTo; row++) {
+			int from = search(key(row, colFrom));
+			int to = search(key(row, colTo) + 1);
+			for (int i = from; i < to; i++) {
+				if (distance(latitude, longitude, i) <= r2) {
+					if (size == result.length) result = Arrays.copyOf(result, size * 2);
+					result[size++] = i;
+				}
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * @return squared distance (in degrees) of the element position from the point
+	 */
+	private double distance(double latitude, double longitude, int i) {
+		double dlat = latitudes[i] - latitude, dlng = longitudes[i] - longitude;
+		return dlat * dlat + dlng * dlng;
+	}
+
+	/**
+	 * @return position of the first cell key not lower than the key
+	 */
+	private int search(long key) {
+		int low = 0, high = cells.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cells[mid] < key) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	private long cell(double latitude, double longitude) {
+		return key(index(latitude), index(longitude));
+	}
+
+	private long index(double coordinate) {
+		return (long) Math.floor(coordinate / cellSize);
+	}
+
+	/**
+	 * Cell key ordered by row and column; rows and columns are offset to be non-negative
+	 */
+	private static long key(long row, long col) {
+		return ((row + (1L << 30)) << 32) | (col + (1L << 30));
+	}
+}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import it.sayservice.platform.smartplanner.data.message.otpbeans.GeolocalizedStopRequest;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Stop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Index of stop positions, answering geolocalized stop queries locally with the
+ * semantics of {@link GeolocalizedStopRequest}: coordinates and radius in degrees, 
+ * results within the radius ordered by distance and paged.
+ * 
+ * @author raman
+ *
+ */
+public class GeoStopIndex extends GeoIndex<Stop> {
+
+	/** default cell size, in degrees (about 500m) */
+	public static final double DEFAULT_CELL_SIZE = 0.005;
+
+	/**
+	 * @param stops stops to index
+	 */
+	public GeoStopIndex(Collection<Stop> stops) {
+		this(stops, DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param stops stops to index
+	 * @param cellSize size of the grid cells, in degrees
+	 */
+	public GeoStopIndex(Collection<Stop> stops, double cellSize) {
+		this(new ArrayList<Stop>(stops), cellSize);
+	}
+
+	private GeoStopIndex(List<Stop> stops, double cellSize) {
+		super(stops, latitudes(stops), longitudes(stops), cellSize);
+	}
+
+	/**
+	 * @see eu.trentorise.smartcampus.mobilityservice.MobilityDataService#getGeolocalizedStops(GeolocalizedStopRequest, String)
+	 * @param gsr request with coordinates, radius and page (page number and size)
+	 * @return page of stops within the radius, ordered by distance
+	 */
+	public List<Stop> getGeolocalizedStops(GeolocalizedStopRequest gsr) {
+		int page = gsr.getPageNumber() == null ? 0 : gsr.getPageNumber();
+		int pageSize = gsr.getPageSize() == null ? Integer.MAX_VALUE : gsr.getPageSize();
+		return find(gsr.getCoordinates()[0], gsr.getCoordinates()[1], gsr.getRadius(), page, pageSize);
+	}
+
+	private static double[] latitudes(List<Stop> stops) {
+		double[] result = new double[stops.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = stops.get(i).getLatitude();
+		}
+		return result;
+	}
+
+	private static double[] longitudes(List<Stop> stops) {
+		double[] result = new double[stops.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = stops.get(i).getLongitude();
+		}
+		return result;
+	}
+}
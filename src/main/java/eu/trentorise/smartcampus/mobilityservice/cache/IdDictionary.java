@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent dictionary of identifiers (agency, route, stop, trip ids), mapping each id to a 
+ * canonical String instance and a compact int handle. Decoded objects referring to the canonical
+ * instances share them instead of holding their own copies.
+ * <p>
+ * The dictionary is bounded: when it reaches the max size it starts a new generation, dropping 
+ * the ids of the previous one (e.g., the trip ids of the past days). The handles are valid within 
+ * their generation only, see {@link #getGeneration()}.
+ * 
+ * @author raman
+ *
+ */
+public class IdDictionary {
+
+	/**
+	 * Default max number of ids of a generation
+	 */
+	public static final int DEFAULT_MAX_SIZE = 100000;
+
+	private final int maxSize;
+	private volatile Generation current;
+
+	public IdDictionary() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize max number of ids, a new generation is started when reached
+	 */
+	public IdDictionary(int maxSize) {
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+		this.maxSize = maxSize;
+		this.current = new Generation(0);
+	}
+
+	/**
+	 * @param id
+	 * @return canonical instance of the id, null if the id is null
+	 */
+	public String intern(String id) {
+		if (id == null) return null;
+		while (true) {
+			Generation g = current;
+			int handle = g.handle(id, maxSize);
+			if (handle >= 0) {
+				return g.get(handle);
+			}
+			nextGeneration(g);
+		}
+	}
+
+	/**
+	 * Replace the list elements with their canonical instances
+	 * @param list
+	 * @return the same list
+	 */
+	public List<String> internAll(List<String> list) {
+		if (list == null) return null;
+		for (ListIterator<String> it = list.listIterator(); it.hasNext();) {
+			String id = it.next();
+			if (id != null) it.set(intern(id));
+		}
+		return list;
+	}
+
+	/**
+	 * @param id
+	 * @return handle of the id in the current generation, assigned at the first use
+	 */
+	public int handle(String id) {
+		while (true) {
+			Generation g = current;
+			int handle = g.handle(id, maxSize);
+			if (handle >= 0) {
+				return handle;
+			}
+			nextGeneration(g);
+		}
+	}
+
+	/**
+	 * @param handle
+	 * @return the id of the handle in the current generation
+	 */
+	public String get(int handle) {
+		return current.get(handle);
+	}
+
+	/**
+	 * @return number of ids in the current generation
+	 */
+	public int size() {
+		return current.handles.size();
+	}
+
+	/**
+	 * @return number of the current generation, increased when the dictionary is full or cleared
+	 */
+	public int getGeneration() {
+		return current.number;
+	}
+
+	/**
+	 * Drop all the ids, starting a new generation
+	 */
+	public void clear() {
+		nextGeneration(current);
+	}
+
+	private synchronized void nextGeneration(Generation full) {
+		if (current == full) {
+			current = new Generation(full.number + 1);
+		}
+	}
+
+	/**
+	 * Ids of a single generation
+	 */
+	private static class Generation {
+		private final int number;
+		private final ConcurrentMap<String, Integer> handles = new ConcurrentHashMap<String, Integer>();
+		private volatile String[] ids = new String[256];
+		private int size;
+
+		private Generation(int number) {
+			this.number = number;
+		}
+
+		/**
+		 * @return handle of the id, -1 if the generation is full
+		 */
+		private int handle(String id, int maxSize) {
+			Integer handle = handles.get(id);
+			if (handle != null) {
+				return handle;
+			}
+			synchronized (this) {
+				handle = handles.get(id);
+				if (handle != null) {
+					return handle;
+				}
+				if (size >= maxSize) {
+					return -1;
+				}
+				String[] current = ids;
+				if (size == current.length) {
+					current = Arrays.copyOf(current, size * 2);
+				}
+				current[size] = id;
+				// publish the array before the handle
+				ids = current;
+				handle = size++;
+				handles.put(id, handle);
+				return handle;
+			}
+		}
+
+		private String get(int handle) {
+			return ids[handle];
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory {@link CacheStore} implementation.
+ * 
+ * @author raman
+ *
+ */
+public class MemoryCacheStore implements CacheStore {
+
+	private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentMap<String, ConcurrentMap<String, String>> contents = new ConcurrentHashMap<String, ConcurrentMap<String, String>>();
+	private final ConcurrentMap<String, Map<String, String>> calendars = new ConcurrentHashMap<String, Map<String, String>>();
+
+	@Override
+	public Long getVersion(String agencyId) {
+		return versions.get(agencyId);
+	}
+
+	@Override
+	public void setVersion(String agencyId, long version) {
+		versions.put(agencyId, version);
+	}
+
+	@Override
+	public void put(String agencyId, String updateId, String content) {
+		ConcurrentMap<String, String> map = contents.get(agencyId);
+		if (map == null) {
+			ConcurrentMap<String, String> created = new ConcurrentHashMap<String, String>();
+			map = contents.putIfAbsent(agencyId, created);
+			if (map == null) map = created;
+		}
+		map.put(updateId, content);
+	}
+
+	@Override
+	public void remove(String agencyId, String updateId) {
+		Map<String, String> map = contents.get(agencyId);
+		if (map != null) {
+			map.remove(updateId);
+		}
+	}
+
+	@Override
+	public void putCalendars(String agencyId, Map<String, String> calendars) {
+		this.calendars.put(agencyId, Collections.unmodifiableMap(new ConcurrentHashMap<String, String>(calendars)));
+	}
+
+	/**
+	 * @param agencyId
+	 * @param updateId
+	 * @return JSON content of the update, null if not present
+	 */
+	public String get(String agencyId, String updateId) {
+		Map<String, String> map = contents.get(agencyId);
+		return map == null ? null : map.get(updateId);
+	}
+
+	/**
+	 * @param agencyId
+	 * @return ids of the agency updates in the store
+	 */
+	public Set<String> getUpdateIds(String agencyId) {
+		Map<String, String> map = contents.get(agencyId);
+		return map == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(map.keySet());
+	}
+
+	/**
+	 * @param agencyId
+	 * @return agency calendars, null if not present
+	 */
+	public Map<String, String> getCalendars(String agencyId) {
+		return calendars.get(agencyId);
+	}
+}
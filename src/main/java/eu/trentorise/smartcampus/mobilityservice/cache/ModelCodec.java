@@ -0,0 +1,643 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import it.sayservice.platform.smartplanner.data.message.Itinerary;
+import it.sayservice.platform.smartplanner.data.message.Position;
+import it.sayservice.platform.smartplanner.data.message.alerts.CreatorType;
+import it.sayservice.platform.smartplanner.data.message.journey.RecurrentJourney;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.mobilityservice.model.BasicItinerary;
+import eu.trentorise.smartcampus.mobilityservice.model.BasicRecurrentJourney;
+import eu.trentorise.smartcampus.mobilityservice.model.Delay;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeUtils;
+import eu.trentorise.smartcampus.mobilityservice.model.TripData;
+import eu.trentorise.smartcampus.network.JsonUtils;
+
+/**
+ * Compact binary codec of the cached model objects ({@link TimeTable}, {@link TripData}, {@link Delay}, 
+ * {@link BasicItinerary}, {@link BasicRecurrentJourney} and lists of them), to replicate or 
+ * spill them instead of Java serialization. 
+ * <p>
+ * Each message starts with a format version and is self-contained: the numbers are written as 
+ * varints, the strings once per message in a dictionary referred to by index, the trip times 
+ * as deltas from the previous ones. The 'HH:mm' times of a trip are predicted from the times of 
+ * the previous trip at the same stops, shifted by the trip headway: the matching times are 
+ * written as runs, the others as deltas from the prediction. The smartplanner beans of the journeys 
+ * (itinerary, recurrent journey and positions) are embedded as JSON.
+ * 
+ * @author raman
+ *
+ */
+public class ModelCodec {
+
+	/**
+	 * Format version written in the messages
+	 */
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x4d43; // MC
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int NULL = 0;
+	private static final int TIMETABLE = 1;
+	private static final int TRIP = 2;
+	private static final int DELAY = 3;
+	private static final int ITINERARY = 4;
+	private static final int RECURRENT_JOURNEY = 5;
+	private static final int LIST = 6;
+
+	// time codes: a run of predicted cells, explicit values, and the deltas from the prediction
+	private static final int TIME_RUN = 0;
+	private static final int TIME_NULL = 1;
+	private static final int TIME_EMPTY = 2;
+	private static final int TIME_OTHER = 3;
+	private static final int TIME_DELTA = 4;
+
+	// cell kinds in the previous trip
+	private static final int CELL_NULL = -1;
+	private static final int CELL_EMPTY = -2;
+	private static final int CELL_OTHER = -3;
+	private static final int NO_PREDICTION = Integer.MIN_VALUE;
+
+	/**
+	 * @param value object to encode
+	 * @return the message
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the object (or a list element) is not supported
+	 */
+	public byte[] encode(Object value) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		write(value, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param data message
+	 * @return the decoded object
+	 * @throws IOException if the message is malformed or has an unsupported version
+	 */
+	public Object decode(byte[] data) throws IOException {
+		return new Input(data).readMessage();
+	}
+
+	/**
+	 * Write the message of the object to the stream
+	 * @param value object to encode
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Object value, OutputStream out) throws IOException {
+		Output o = new Output();
+		o.writeVarint(MAGIC);
+		o.writeVarint(VERSION);
+		o.writeValue(value);
+		o.writeTo(out);
+	}
+
+	/**
+	 * Read a message from the stream. The stream is read to the end.
+	 * @param in
+	 * @return the decoded object
+	 * @throws IOException
+	 */
+	public Object read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, n);
+		}
+		return decode(out.toByteArray());
+	}
+
+	private static class Output {
+		private byte[] buf = new byte[256];
+		private int count;
+		private final Map<String, Integer> strings = new HashMap<String, Integer>();
+		private long lastTime;
+
+		void writeValue(Object value) throws IOException {
+			if (value == null) {
+				writeVarint(NULL);
+			} else if (value instanceof TimeTable) {
+				writeVarint(TIMETABLE);
+				writeTimeTable((TimeTable) value);
+			} else if (value instanceof TripData) {
+				writeVarint(TRIP);
+				writeTrip((TripData) value);
+			} else if (value instanceof Delay) {
+				writeVarint(DELAY);
+				writeDelay((Delay) value);
+			} else if (value instanceof BasicItinerary) {
+				writeVarint(ITINERARY);
+				BasicItinerary it = (BasicItinerary) value;
+				writeString(it.getClientId());
+				writeString(it.getName());
+				writeVarint(it.isMonitor() ? 1 : 0);
+				writeJSON(it.getOriginalFrom());
+				writeJSON(it.getOriginalTo());
+				writeJSON(it.getData());
+			} else if (value instanceof BasicRecurrentJourney) {
+				writeVarint(RECURRENT_JOURNEY);
+				BasicRecurrentJourney j = (BasicRecurrentJourney) value;
+				writeString(j.getClientId());
+				writeString(j.getName());
+				writeVarint(j.isMonitor() ? 1 : 0);
+				writeJSON(j.getData());
+			} else if (value instanceof List) {
+				List<?> list = (List<?>) value;
+				writeVarint(LIST);
+				writeVarint(list.size());
+				for (Object o : list) {
+					writeValue(o);
+				}
+			} else {
+				throw new IllegalArgumentException("Unsupported type " + value.getClass().getName());
+			}
+		}
+
+		private void writeTimeTable(TimeTable tt) {
+			writeStrings(tt.getRouteIds());
+			writeStrings(tt.getTripIds());
+			writeStrings(tt.getStops());
+			writeStrings(tt.getStopsId());
+			List<List<String>> times = tt.getTimes();
+			if (times == null) {
+				writeVarint(0);
+			} else {
+				writeVarint(times.size() + 1);
+				Prediction prediction = new Prediction();
+				for (List<String> row : times) {
+					if (row == null) {
+						writeVarint(0);
+						continue;
+					}
+					writeVarint(row.size() + 1);
+					int[] cells = new int[row.size()];
+					int run = 0;
+					for (int s = 0; s < cells.length; s++) {
+						String time = row.get(s);
+						int cell = time == null ? CELL_NULL : time.length() == 0 ? CELL_EMPTY : TimeUtils.toMinutes(time);
+						if (cell < 0 && time != null && time.length() > 0) cell = CELL_OTHER;
+						cells[s] = cell;
+						int predicted = prediction.get(s);
+						if (cell != CELL_OTHER && cell == predicted) {
+							run++;
+							continue;
+						}
+						if (run > 0) {
+							writeVarint(TIME_RUN);
+							writeVarint(run);
+							run = 0;
+						}
+						if (cell >= 0) {
+							writeVarint(TIME_DELTA + zigzag(cell - prediction.base(predicted)));
+							prediction.update(s, cell);
+						} else if (cell == CELL_NULL) {
+							writeVarint(TIME_NULL);
+						} else if (cell == CELL_EMPTY) {
+							writeVarint(TIME_EMPTY);
+						} else {
+							writeVarint(TIME_OTHER);
+							writeString(time);
+						}
+					}
+					if (run > 0) {
+						writeVarint(TIME_RUN);
+						writeVarint(run);
+					}
+					prediction.next(cells);
+				}
+			}
+			List<Delay> delays = tt.getDelays();
+			if (delays == null) {
+				writeVarint(0);
+			} else {
+				writeVarint(delays.size() + 1);
+				for (Delay d : delays) {
+					writeDelay(d);
+				}
+			}
+		}
+
+		private void writeTrip(TripData t) {
+			writeString(t.getAgencyId());
+			writeString(t.getRouteId());
+			writeString(t.getRouteName());
+			writeString(t.getRouteShortName());
+			writeString(t.getTripId());
+			writeVarlong(zigzag(t.getTime() - lastTime));
+			lastTime = t.getTime();
+			writeDelay(t.getDelay());
+		}
+
+		private void writeDelay(Delay d) {
+			if (d == null) {
+				writeVarint(0);
+				return;
+			}
+			Map<CreatorType, String> values = d.getValues();
+			if (values == null) {
+				writeVarint(1);
+				return;
+			}
+			writeVarint(values.size() + 1);
+			for (Map.Entry<CreatorType, String> e : values.entrySet()) {
+				writeString(e.getKey() == null ? null : e.getKey().name());
+				writeString(e.getValue());
+			}
+		}
+
+		private void writeStrings(List<String> list) {
+			if (list == null) {
+				writeVarint(0);
+				return;
+			}
+			writeVarint(list.size() + 1);
+			for (String s : list) {
+				writeString(s);
+			}
+		}
+
+		/*
+		 * 0 for null, index + 2 for the strings already written, 1 followed by the UTF-8 bytes otherwise
+		 */
+		private void writeString(String s) {
+			if (s == null) {
+				writeVarint(0);
+				return;
+			}
+			Integer index = strings.get(s);
+			if (index != null) {
+				writeVarint(index + 2);
+				return;
+			}
+			strings.put(s, strings.size());
+			writeVarint(1);
+			writeBytes(s.getBytes(UTF8));
+		}
+
+		private void writeJSON(Object o) {
+			if (o == null) {
+				writeVarint(0);
+				return;
+			}
+			byte[] bytes = JsonUtils.toJSON(o).getBytes(UTF8);
+			writeVarint(bytes.length + 1);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, count, bytes.length);
+			count += bytes.length;
+		}
+
+		private void writeBytes(byte[] bytes) {
+			writeVarint(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, count, bytes.length);
+			count += bytes.length;
+		}
+
+		void writeVarint(int value) {
+			writeVarlong(value & 0xffffffffL);
+		}
+
+		private void writeVarlong(long value) {
+			ensure(10);
+			while ((value & ~0x7fL) != 0) {
+				buf[count++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			buf[count++] = (byte) value;
+		}
+
+		private void ensure(int n) {
+			if (count + n > buf.length) {
+				byte[] b = new byte[Math.max(buf.length * 2, count + n)];
+				System.arraycopy(buf, 0, b, 0, count);
+				buf = b;
+			}
+		}
+
+		void writeTo(OutputStream out) throws IOException {
+			out.write(buf, 0, count);
+		}
+	}
+
+	private static class Input {
+		private final byte[] buf;
+		private int pos;
+		private final List<String> strings = new ArrayList<String>();
+		private String[] times;
+		private long lastTime;
+
+		Input(byte[] buf) {
+			this.buf = buf;
+		}
+
+		Object readMessage() throws IOException {
+			if (readVarint() != MAGIC) {
+				throw new IOException("Not a model codec message");
+			}
+			int version = readVarint();
+			if (version != VERSION) {
+				throw new IOException("Unsupported model codec version " + version);
+			}
+			return readValue();
+		}
+
+		private Object readValue() throws IOException {
+			int type = readVarint();
+			switch (type) {
+			case NULL:
+				return null;
+			case TIMETABLE:
+				return readTimeTable();
+			case TRIP:
+				return readTrip();
+			case DELAY:
+				return readDelay();
+			case ITINERARY:
+				BasicItinerary it = new BasicItinerary();
+				it.setClientId(readString());
+				it.setName(readString());
+				it.setMonitor(readVarint() == 1);
+				it.setOriginalFrom(readJSON(Position.class));
+				it.setOriginalTo(readJSON(Position.class));
+				it.setData(readJSON(Itinerary.class));
+				return it;
+			case RECURRENT_JOURNEY:
+				BasicRecurrentJourney j = new BasicRecurrentJourney();
+				j.setClientId(readString());
+				j.setName(readString());
+				j.setMonitor(readVarint() == 1);
+				j.setData(readJSON(RecurrentJourney.class));
+				return j;
+			case LIST:
+				int size = readVarint();
+				List<Object> list = new ArrayList<Object>(size);
+				for (int i = 0; i < size; i++) {
+					list.add(readValue());
+				}
+				return list;
+			default:
+				throw new IOException("Unknown model codec type " + type);
+			}
+		}
+
+		private TimeTable readTimeTable() throws IOException {
+			TimeTable tt = new TimeTable();
+			tt.setRouteIds(readStrings());
+			tt.setTripIds(readStrings());
+			tt.setStops(readStrings());
+			tt.setStopsId(readStrings());
+			int size = readVarint() - 1;
+			if (size >= 0) {
+				List<List<String>> matrix = new ArrayList<List<String>>(size);
+				Prediction prediction = new Prediction();
+				for (int i = 0; i < size; i++) {
+					int length = readVarint() - 1;
+					if (length < 0) {
+						matrix.add(null);
+						continue;
+					}
+					List<String> row = new ArrayList<String>(length);
+					int[] cells = new int[length];
+					int run = 0;
+					for (int s = 0; s < length; s++) {
+						int predicted = prediction.get(s);
+						int code = run > 0 ? TIME_RUN : readVarint();
+						if (code == TIME_RUN) {
+							if (run == 0) {
+								run = readVarint();
+								if (run <= 0 || predicted == NO_PREDICTION) {
+									throw new IOException("Invalid time run");
+								}
+							}
+							run--;
+							cells[s] = predicted;
+							row.add(predicted == CELL_NULL ? null : predicted == CELL_EMPTY ? "" : toTime(predicted));
+							continue;
+						}
+						switch (code) {
+						case TIME_NULL:
+							cells[s] = CELL_NULL;
+							row.add(null);
+							break;
+						case TIME_EMPTY:
+							cells[s] = CELL_EMPTY;
+							row.add("");
+							break;
+						case TIME_OTHER:
+							cells[s] = CELL_OTHER;
+							row.add(readString());
+							break;
+						default:
+							int minutes = prediction.base(predicted) + unzigzag(code - TIME_DELTA);
+							if (minutes < 0 || minutes >= 100 * 60) {
+								throw new IOException("Invalid time " + minutes);
+							}
+							cells[s] = minutes;
+							row.add(toTime(minutes));
+							prediction.update(s, minutes);
+						}
+					}
+					matrix.add(row);
+					prediction.next(cells);
+				}
+				tt.setTimes(matrix);
+			}
+			size = readVarint() - 1;
+			if (size >= 0) {
+				List<Delay> delays = new ArrayList<Delay>(size);
+				for (int i = 0; i < size; i++) {
+					delays.add(readDelay());
+				}
+				tt.setDelays(delays);
+			}
+			return tt;
+		}
+
+		private TripData readTrip() throws IOException {
+			TripData t = new TripData();
+			t.setAgencyId(readString());
+			t.setRouteId(readString());
+			t.setRouteName(readString());
+			t.setRouteShortName(readString());
+			t.setTripId(readString());
+			lastTime += unzigzag(readVarlong());
+			t.setTime(lastTime);
+			t.setDelay(readDelay());
+			return t;
+		}
+
+		private Delay readDelay() throws IOException {
+			int size = readVarint() - 1;
+			if (size < 0) {
+				return null;
+			}
+			Delay d = null;
+			for (int i = 0; i < size; i++) {
+				String type = readString();
+				String value = readString();
+				CreatorType creator = type == null ? null : CreatorType.getAlertType(type);
+				if (creator == null) continue;
+				if (d == null) d = new Delay();
+				d.getValues().put(creator, value);
+			}
+			return d == null ? Delay.NO_DELAY : d;
+		}
+
+		private List<String> readStrings() throws IOException {
+			int size = readVarint() - 1;
+			if (size < 0) {
+				return null;
+			}
+			List<String> list = new ArrayList<String>(size);
+			for (int i = 0; i < size; i++) {
+				list.add(readString());
+			}
+			return list;
+		}
+
+		private String readString() throws IOException {
+			int ref = readVarint();
+			if (ref == 0) {
+				return null;
+			}
+			if (ref > 1) {
+				if (ref - 2 >= strings.size()) {
+					throw new IOException("Invalid string reference " + ref);
+				}
+				return strings.get(ref - 2);
+			}
+			int length = readVarint();
+			String s = new String(buf, checkLength(length), length, UTF8);
+			pos += length;
+			strings.add(s);
+			return s;
+		}
+
+		private <T> T readJSON(Class<T> type) throws IOException {
+			int length = readVarint() - 1;
+			if (length < 0) {
+				return null;
+			}
+			String json = new String(buf, checkLength(length), length, UTF8);
+			pos += length;
+			return JsonUtils.toObject(json, type);
+		}
+
+		private String toTime(int minutes) {
+			// the same times recur across the trips
+			if (times == null) {
+				times = new String[100 * 60];
+			}
+			String time = times[minutes];
+			if (time == null) {
+				time = TimeUtils.formatMinutes(minutes);
+				times[minutes] = time;
+			}
+			return time;
+		}
+
+		private int checkLength(int length) throws IOException {
+			if (length < 0 || pos + length > buf.length) {
+				throw new EOFException();
+			}
+			return pos;
+		}
+
+		private int readVarint() throws IOException {
+			return (int) readVarlong();
+		}
+
+		private long readVarlong() throws IOException {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				if (pos >= buf.length) {
+					throw new EOFException();
+				}
+				byte b = buf[pos++];
+				result |= (long) (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+			throw new IOException("Malformed varint");
+		}
+	}
+
+	/*
+	 * Prediction of the trip times from the times of the previous trip, shared by the encoder and the decoder
+	 */
+	private static class Prediction {
+		private int[] previous;
+		// headway from the previous trip
+		private int shift;
+		// last time of the current trip, or of the previous trips
+		private int last;
+
+		int get(int stop) {
+			if (previous == null || stop >= previous.length) return NO_PREDICTION;
+			int cell = previous[stop];
+			if (cell >= 0) return cell + shift;
+			return cell == CELL_OTHER ? NO_PREDICTION : cell;
+		}
+
+		int base(int predicted) {
+			return predicted >= 0 ? predicted : last;
+		}
+
+		void update(int stop, int minutes) {
+			if (previous != null && stop < previous.length && previous[stop] >= 0) {
+				shift = minutes - previous[stop];
+			}
+			last = minutes;
+		}
+
+		void next(int[] cells) {
+			previous = cells;
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Bounded (LRU) cache of the decoded static data responses (routes, stops) with 
+ * their validators, used by the {@link eu.trentorise.smartcampus.mobilityservice.MobilityDataService} 
+ * to perform conditional requests. Also keeps the latest known data version of each 
+ * agency, as returned by the 'versions' call: while the version of an agency does not 
+ * change, the cached responses of the agency are returned without contacting the server.
+ * <p>
+ * The cached objects are shared among the callers and should not be modified.
+ * 
+ * @author raman
+ *
+ */
+public class ResponseCache {
+
+	private final Map<String, CachedResponse> entries;
+	private final Map<String, Long> versions = new HashMap<String, Long>();
+
+	/**
+	 * Create cache with up to 256 entries
+	 */
+	public ResponseCache() {
+		this(256);
+	}
+
+	/**
+	 * @param maxEntries max number of responses to keep
+	 */
+	public ResponseCache(final int maxEntries) {
+		entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, CachedResponse> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param url
+	 * @return cached response for the URL, null if absent
+	 */
+	public synchronized CachedResponse get(String url) {
+		return entries.get(url);
+	}
+
+	/**
+	 * @param url
+	 * @param response
+	 */
+	public synchronized void put(String url, CachedResponse response) {
+		entries.put(url, response);
+	}
+
+	/**
+	 * Remove all the cached responses
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @param agencyId
+	 * @return latest known data version of the agency, null if unknown
+	 */
+	public synchronized Long getVersion(String agencyId) {
+		return versions.get(agencyId);
+	}
+
+	/**
+	 * Update the known agency data versions
+	 * @param agencyVersions agency ID to version map
+	 */
+	public synchronized void updateVersions(Map<String, ? extends Number> agencyVersions) {
+		for (String agencyId : agencyVersions.keySet()) {
+			Number version = agencyVersions.get(agencyId);
+			if (version != null) {
+				versions.put(agencyId, version.longValue());
+			}
+		}
+	}
+
+	/**
+	 * @return number of cached responses
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical calls: while a call with a given key is in flight,
+ * other callers with the same key wait for its completion and receive the same result 
+ * (or the same error) instead of performing their own call. Results are not cached
+ * after the call completes.
+ * 
+ * @author raman
+ *
+ */
+public class SingleFlight {
+
+	private final ConcurrentMap<String, FutureTask<?>> calls = new ConcurrentHashMap<String, FutureTask<?>>();
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Execute the call or join the identical call in flight.
+	 * @param key call key, should identify the endpoint, the normalized parameters and the caller scope
+	 * @param call
+	 * @return call result
+	 * @throws Exception the error thrown by the call
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(String key, Callable<T> call) throws Exception {
+		FutureTask<T> task = new FutureTask<T>(call);
+		FutureTask<T> existing = (FutureTask<T>) calls.putIfAbsent(key, task);
+		if (existing != null) {
+			coalesced.incrementAndGet();
+			return getResult(existing);
+		}
+		executed.incrementAndGet();
+		try {
+			task.run();
+		} finally {
+			calls.remove(key, task);
+		}
+		return getResult(task);
+	}
+
+	/**
+	 * @return number of calls actually executed
+	 */
+	public long getExecuted() {
+		return executed.get();
+	}
+
+	/**
+	 * @return number of calls served by joining a call in flight
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * @return number of calls currently in flight
+	 */
+	public int getInFlight() {
+		return calls.size();
+	}
+
+	private static <T> T getResult(FutureTask<T> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.util.List;
+
+/**
+ * Snapshot of a data list read at a given time.
+ * 
+ * @author raman
+ *
+ */
+public class Snapshot<T> {
+
+	private final List<T> data;
+	private final long timestamp;
+
+	public Snapshot(List<T> data, long timestamp) {
+		this.data = data;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return snapshot data
+	 */
+	public List<T> getData() {
+		return data;
+	}
+
+	/**
+	 * @return time (in millis) when the data has been read
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return age (in millis) of the snapshot
+	 */
+	public long getAge() {
+		return System.currentTimeMillis() - timestamp;
+	}
+}
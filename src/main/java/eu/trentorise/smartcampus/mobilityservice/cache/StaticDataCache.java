@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Route;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Stop;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import eu.trentorise.smartcampus.mobilityservice.MobilityDataService;
+import eu.trentorise.smartcampus.mobilityservice.MobilityServiceException;
+
+/**
+ * Local cache of the agency static data (routes and stops), invalidated only when 
+ * the agency version returned by {@link MobilityDataService#getVersions(String)} grows.
+ * The versions are checked by a background task (see {@link #start(String, long)}), so that 
+ * the lookups of cached data never perform remote calls. Concurrent misses of the same
+ * data are served by a single remote call.
+ * <p>
+ * The cached lists are shared among the callers and should not be modified.
+ * 
+ * @author raman
+ *
+ */
+public class StaticDataCache {
+
+	private static final int MAX_GEO_ENTRIES = 1000;
+
+	private final MobilityDataService dataService;
+	private final ConcurrentMap<String, AgencyData> agencies = new ConcurrentHashMap<String, AgencyData>();
+	private final Map<String, Long> versions = new ConcurrentHashMap<String, Long>();
+	private final SingleFlight loads = new SingleFlight();
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param dataService service used to load the data and the versions
+	 */
+	public StaticDataCache(MobilityDataService dataService) {
+		this.dataService = dataService;
+	}
+
+	/**
+	 * Read the current versions and start the periodic version check.
+	 * @param token client access token used for the version checks
+	 * @param checkInterval interval (in millis) between version checks
+	 * @throws MobilityServiceException if the initial version read fails
+	 */
+	public void start(final String token, long checkInterval) throws MobilityServiceException {
+		// no monitor held during the remote call
+		checkVersions(token);
+		synchronized (this) {
+			schedule(token, checkInterval);
+		}
+	}
+
+	private void schedule(final String token, long checkInterval) {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "mobility-version-check");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						checkVersions(token);
+					} catch (Exception e) {
+						// keep the current data until the next successful check
+					}
+				}
+			}, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop the periodic version check
+	 */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Read the agency versions and drop the data of the agencies whose version has grown.
+	 * @param token client access token
+	 * @throws MobilityServiceException
+	 */
+	public void checkVersions(String token) throws MobilityServiceException {
+		Map<String, ? extends Number> current = dataService.getVersions(token);
+		if (current == null) return;
+		for (String agencyId : current.keySet()) {
+			Number value = current.get(agencyId);
+			if (value == null) continue;
+			long version = value.longValue();
+			versions.put(agencyId, version);
+			AgencyData data = agencies.get(agencyId);
+			if (data != null && (data.version == null || data.version < version)) {
+				agencies.remove(agencyId, data);
+			}
+		}
+	}
+
+	/**
+	 * @param agencyId
+	 * @return version of the agency data, null if unknown
+	 */
+	public Long getVersion(String agencyId) {
+		return versions.get(agencyId);
+	}
+
+	/**
+	 * @see MobilityDataService#getRoutes(String, String)
+	 */
+	public List<Route> getRoutes(final String agencyId, final String token) throws MobilityServiceException {
+		final AgencyData data = getAgencyData(agencyId);
+		List<Route> routes = data.routes;
+		if (routes != null) {
+			return routes;
+		}
+		return load(key(agencyId, data) + "/routes", new Callable<List<Route>>() {
+			@Override
+			public List<Route> call() throws Exception {
+				List<Route> result = dataService.getRoutes(agencyId, token);
+				data.routes = result;
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getStops(String, String, String)
+	 */
+	public List<Stop> getStops(final String agencyId, final String routeId, final String token) throws MobilityServiceException {
+		final AgencyData data = getAgencyData(agencyId);
+		List<Stop> stops = data.stops.get(routeId);
+		if (stops != null) {
+			return stops;
+		}
+		return load(key(agencyId, data) + "/stops/" + routeId, new Callable<List<Stop>>() {
+			@Override
+			public List<Stop> call() throws Exception {
+				List<Stop> result = dataService.getStops(agencyId, routeId, token);
+				data.stops.put(routeId, result);
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * @see MobilityDataService#getStops(String, String, double, double, double, String)
+	 */
+	public List<Stop> getStops(final String agencyId, final String routeId, final double latitude, final double longitude, final double radius, final String token) throws MobilityServiceException {
+		final AgencyData data = getAgencyData(agencyId);
+		final String key = routeId + '/' + latitude + '/' + longitude + '/' + radius;
+		List<Stop> stops;
+		synchronized (data.geoStops) {
+			stops = data.geoStops.get(key);
+		}
+		if (stops != null) {
+			return stops;
+		}
+		return load(key(agencyId, data) + "/geostops/" + key, new Callable<List<Stop>>() {
+			@Override
+			public List<Stop> call() throws Exception {
+				List<Stop> result = dataService.getStops(agencyId, routeId, latitude, longitude, radius, token);
+				synchronized (data.geoStops) {
+					data.geoStops.put(key, result);
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Spatial index of all the agency stops (those of all the agency routes), to answer 
+	 * the geolocalized stop queries locally.
+	 * @param agencyId
+	 * @param token
+	 * @return index of the agency stops
+	 * @throws MobilityServiceException
+	 */
+	public GeoStopIndex getStopIndex(final String agencyId, final String token) throws MobilityServiceException {
+		final AgencyData data = getAgencyData(agencyId);
+		GeoStopIndex index = data.stopIndex;
+		if (index != null) {
+			return index;
+		}
+		return load(key(agencyId, data) + "/stopindex", new Callable<GeoStopIndex>() {
+			@Override
+			public GeoStopIndex call() throws Exception {
+				Map<String, Stop> stops = new LinkedHashMap<String, Stop>();
+				for (Route route : getRoutes(agencyId, token)) {
+					for (Stop stop : getStops(agencyId, route.getId().getId(), token)) {
+						stops.put(stop.getId(), stop);
+					}
+				}
+				GeoStopIndex result = new GeoStopIndex(stops.values());
+				data.stopIndex = result;
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Drop all the cached data
+	 */
+	public void clear() {
+		agencies.clear();
+	}
+
+	private AgencyData getAgencyData(String agencyId) {
+		AgencyData data = agencies.get(agencyId);
+		if (data == null) {
+			AgencyData created = new AgencyData(versions.get(agencyId));
+			data = agencies.putIfAbsent(agencyId, created);
+			if (data == null) data = created;
+		}
+		return data;
+	}
+
+	/*
+	 * Loads are coalesced per agency version: the callers of a newer version do not join 
+	 * the loads in flight for the invalidated data, whose results are stored in the dropped 
+	 * agency data only.
+	 */
+	private static String key(String agencyId, AgencyData data) {
+		return agencyId + '@' + data.version;
+	}
+
+	private <T> T load(String key, Callable<T> call) throws MobilityServiceException {
+		try {
+			return loads.execute(key, call);
+		} catch (MobilityServiceException e) {
+			throw e;
+		} catch (SecurityException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MobilityServiceException(e);
+		}
+	}
+
+	/**
+	 * Data of a single agency at a given version
+	 */
+	private static class AgencyData {
+		private final Long version;
+		private volatile List<Route> routes;
+		private volatile GeoStopIndex stopIndex;
+		private final ConcurrentMap<String, List<Stop>> stops = new ConcurrentHashMap<String, List<Stop>>();
+		private final Map<String, List<Stop>> geoStops = new LinkedHashMap<String, List<Stop>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, List<Stop>> eldest) {
+				return size() > MAX_GEO_ENTRIES;
+			}
+		};
+
+		public AgencyData(Long version) {
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import eu.trentorise.smartcampus.mobilityservice.MobilityDataService;
+import eu.trentorise.smartcampus.mobilityservice.MobilityServiceException;
+import eu.trentorise.smartcampus.mobilityservice.model.TaxiStation;
+
+/**
+ * Cache of the taxi stations with a spatial index for the nearest station queries.
+ * The station list (with the number of available taxis) is read again once older 
+ * than the max age. Station locations are expected as [latitude, longitude].
+ * 
+ * @author raman
+ *
+ */
+public class TaxiStationCache {
+
+	private static final double CELL_SIZE = 0.01;
+
+	private final MobilityDataService dataService;
+	private volatile long maxAge;
+	private volatile Stations stations;
+	private final SingleFlight loads = new SingleFlight();
+
+	/**
+	 * @param dataService service used to read the stations
+	 * @param maxAge age (in millis) after which the stations are read again
+	 */
+	public TaxiStationCache(MobilityDataService dataService, long maxAge) {
+		this.dataService = dataService;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @see MobilityDataService#getTaxiStops(String)
+	 */
+	public List<TaxiStation> getStations(String token) throws MobilityServiceException {
+		return getCurrent(token).list;
+	}
+
+	/**
+	 * Find the stations closest to the specified point. Stations at the same distance 
+	 * are ranked by the number of available taxis.
+	 * @param latitude
+	 * @param longitude
+	 * @param count max number of stations to return
+	 * @param availableOnly true to consider only the stations with available taxis
+	 * @param token
+	 * @return stations ordered by distance
+	 * @throws MobilityServiceException
+	 */
+	public List<TaxiStation> getNearest(final double latitude, final double longitude, int count, boolean availableOnly, String token) throws MobilityServiceException {
+		GeoIndex<TaxiStation> index = getCurrent(token).index;
+		List<TaxiStation> result = new ArrayList<TaxiStation>();
+		int size = count;
+		while (true) {
+			List<TaxiStation> nearest = index.find(latitude, longitude, 0, 0, size);
+			result.clear();
+			for (TaxiStation station : nearest) {
+				if (!availableOnly || station.getTaxis() > 0) {
+					result.add(station);
+				}
+			}
+			if (result.size() >= count || nearest.size() >= index.size()) break;
+			size *= 2;
+		}
+		Collections.sort(result, new Comparator<TaxiStation>() {
+			@Override
+			public int compare(TaxiStation a, TaxiStation b) {
+				int c = Double.compare(distance(a, latitude, longitude), distance(b, latitude, longitude));
+				return c != 0 ? c : b.getTaxis() - a.getTaxis();
+			}
+		});
+		return result.size() > count ? new ArrayList<TaxiStation>(result.subList(0, count)) : result;
+	}
+
+	/**
+	 * Drop the cached stations
+	 */
+	public void clear() {
+		stations = null;
+	}
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	private Stations getCurrent(final String token) throws MobilityServiceException {
+		Stations current = stations;
+		if (current != null && System.currentTimeMillis() - current.timestamp <= maxAge) {
+			return current;
+		}
+		try {
+			return loads.execute("taxistations", new Callable<Stations>() {
+				@Override
+				public Stations call() throws Exception {
+					long timestamp = System.currentTimeMillis();
+					Stations result = new Stations(dataService.getTaxiStops(token), timestamp);
+					stations = result;
+					return result;
+				}
+			});
+		} catch (MobilityServiceException e) {
+			throw e;
+		} catch (SecurityException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new MobilityServiceException(e);
+		}
+	}
+
+	private static double distance(TaxiStation station, double latitude, double longitude) {
+		double dlat = station.getLocation()[0] - latitude, dlng = station.getLocation()[1] - longitude;
+		return dlat * dlat + dlng * dlng;
+	}
+
+	/**
+	 * Station list read at a given time, with its index
+	 */
+	private static class Stations {
+		private final List<TaxiStation> list;
+		private final GeoIndex<TaxiStation> index;
+		private final long timestamp;
+
+		public Stations(List<TaxiStation> list, long timestamp) {
+			this.list = Collections.unmodifiableList(list == null ? new ArrayList<TaxiStation>() : list);
+			this.timestamp = timestamp;
+			List<TaxiStation> located = new ArrayList<TaxiStation>();
+			for (TaxiStation station : this.list) {
+				if (station.getLocation() != null && station.getLocation().length >= 2) {
+					located.add(station);
+				}
+			}
+			double[] latitudes = new double[located.size()];
+			double[] longitudes = new double[located.size()];
+			for (int i = 0; i < latitudes.length; i++) {
+				latitudes[i] = located.get(i).getLocation()[0];
+				longitudes[i] = located.get(i).getLocation()[1];
+			}
+			this.index = new GeoIndex<TaxiStation>(located, latitudes, longitudes, CELL_SIZE);
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.mobilityservice.model.CompactTimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.Delay;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeUtils;
+
+/**
+ * Persistent store of the daily route timetables, keyed by agency, route and date. 
+ * Each timetable is stored in a separate file with a compact binary layout
+ * (string dictionary, 'HH:mm' times as minutes of day) and read through a memory map, 
+ * so that only the requested timetables are loaded on the heap. A requested timetable is 
+ * decoded at once into a {@link CompactTimeTable}, i.e., it is kept on the heap as primitive arrays.
+ * <p>
+ * The delays are not stored: the timetables read from the store have no delay values
+ * and the delays should be read with {@link eu.trentorise.smartcampus.mobilityservice.MobilityDataService#getDelays(String, String, long, String)}.
+ * 
+ * @author raman
+ *
+ */
+public class TimeTableStore {
+
+	private static final int MAGIC = 0x4d545431; // MTT1
+	private static final String SUFFIX = ".tt";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final short EMPTY = -1;
+	private static final short NULL = -2;
+	private static final short DICTIONARY = -3;
+
+	private final File dir;
+
+	/**
+	 * @param dir directory of the store, created if missing
+	 */
+	public TimeTableStore(File dir) {
+		this.dir = dir;
+		dir.mkdirs();
+	}
+
+	/**
+	 * @param agencyId
+	 * @param routeId
+	 * @param when time within the timetable day
+	 * @return stored timetable, null if not present or not readable
+	 */
+	public CompactTimeTable get(String agencyId, String routeId, long when) {
+		File file = getFile(agencyId, routeId, when);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return new CompactTimeTable(decode(buffer));
+			} finally {
+				raf.close();
+			}
+		} catch (Exception e) {
+			// corrupted or concurrently replaced entry: read it again from the server
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Store the timetable, replacing the existing one if any
+	 * @param agencyId
+	 * @param routeId
+	 * @param when time within the timetable day
+	 * @param timeTable
+	 * @throws IOException
+	 */
+	public void put(String agencyId, String routeId, long when, TimeTable timeTable) throws IOException {
+		File file = getFile(agencyId, routeId, when);
+		file.getParentFile().mkdirs();
+		File tmp = File.createTempFile("timetable", ".tmp", file.getParentFile());
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				encode(timeTable, out);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Cannot replace " + file);
+				}
+			}
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * @param agencyId
+	 * @param routeId
+	 * @param when time within the timetable day
+	 * @return true if the timetable was stored
+	 */
+	public boolean remove(String agencyId, String routeId, long when) {
+		return getFile(agencyId, routeId, when).delete();
+	}
+
+	/**
+	 * Remove all the stored timetables of the agency
+	 * @param agencyId
+	 */
+	public void clear(String agencyId) {
+		delete(new File(dir, encodeName(agencyId)));
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private File getFile(String agencyId, String routeId, long when) {
+		String day = new SimpleDateFormat("yyyyMMdd").format(new Date(when));
+		return new File(new File(new File(dir, encodeName(agencyId)), encodeName(routeId)), day + SUFFIX);
+	}
+
+	private static String encodeName(String name) {
+		try {
+			return URLEncoder.encode(name, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void encode(TimeTable tt, DataOutputStream out) throws IOException {
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		collect(tt.getStops(), dictionary, strings);
+		collect(tt.getStopsId(), dictionary, strings);
+		collect(tt.getTripIds(), dictionary, strings);
+		collect(tt.getRouteIds(), dictionary, strings);
+		if (tt.getTimes() != null) {
+			for (List<String> list : tt.getTimes()) {
+				if (list == null) continue;
+				for (String time : list) {
+					if (time != null && TimeUtils.toMinutes(time) < 0 && !dictionary.containsKey(time)) {
+						dictionary.put(time, strings.size());
+						strings.add(time);
+					}
+				}
+			}
+		}
+
+		out.writeInt(MAGIC);
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			byte[] bytes = s.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		writeIndexes(tt.getStops(), dictionary, out);
+		writeIndexes(tt.getStopsId(), dictionary, out);
+		writeIndexes(tt.getTripIds(), dictionary, out);
+		writeIndexes(tt.getRouteIds(), dictionary, out);
+		if (tt.getTimes() == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(tt.getTimes().size());
+			for (List<String> list : tt.getTimes()) {
+				if (list == null) {
+					out.writeInt(-1);
+					continue;
+				}
+				out.writeInt(list.size());
+				for (String time : list) {
+					if (time == null) {
+						out.writeShort(NULL);
+					} else if (time.length() == 0) {
+						out.writeShort(EMPTY);
+					} else {
+						int minutes = TimeUtils.toMinutes(time);
+						if (minutes >= 0) {
+							out.writeShort(minutes);
+						} else {
+							out.writeShort(DICTIONARY);
+							out.writeInt(dictionary.get(time));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	static TimeTable decode(ByteBuffer in) throws IOException {
+		if (in.getInt() != MAGIC) {
+			throw new IOException("Unknown timetable format");
+		}
+		String[] strings = new String[in.getInt()];
+		for (int i = 0; i < strings.length; i++) {
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			strings[i] = new String(bytes, UTF8);
+		}
+		TimeTable tt = new TimeTable();
+		tt.setStops(readIndexes(in, strings));
+		tt.setStopsId(readIndexes(in, strings));
+		tt.setTripIds(readIndexes(in, strings));
+		tt.setRouteIds(readIndexes(in, strings));
+		int n = in.getInt();
+		if (n >= 0) {
+			List<List<String>> times = new ArrayList<List<String>>(n);
+			for (int i = 0; i < n; i++) {
+				int m = in.getInt();
+				if (m < 0) {
+					times.add(null);
+					continue;
+				}
+				List<String> list = new ArrayList<String>(m);
+				for (int j = 0; j < m; j++) {
+					short value = in.getShort();
+					if (value >= 0) {
+						list.add(TimeUtils.formatMinutes(value));
+					} else if (value == EMPTY) {
+						list.add("");
+					} else if (value == NULL) {
+						list.add(null);
+					} else {
+						list.add(strings[in.getInt()]);
+					}
+				}
+				times.add(list);
+			}
+			tt.setTimes(times);
+		}
+		List<Delay> delays = new ArrayList<Delay>();
+		if (tt.getTripIds() != null) {
+			for (int i = 0; i < tt.getTripIds().size(); i++) {
+				delays.add(Delay.NO_DELAY);
+			}
+		}
+		tt.setDelays(delays);
+		return tt;
+	}
+
+	private static void collect(List<String> list, Map<String, Integer> dictionary, List<String> strings) {
+		if (list == null) return;
+		for (String s : list) {
+			if (s != null && !dictionary.containsKey(s)) {
+				dictionary.put(s, strings.size());
+				strings.add(s);
+			}
+		}
+	}
+
+	private static void writeIndexes(List<String> list, Map<String, Integer> dictionary, DataOutputStream out) throws IOException {
+		if (list == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(list.size());
+		for (String s : list) {
+			out.writeInt(s == null ? -1 : dictionary.get(s));
+		}
+	}
+
+	private static List<String> readIndexes(ByteBuffer in, String[] strings) {
+		int n = in.getInt();
+		if (n < 0) return null;
+		List<String> list = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++) {
+			int idx = in.getInt();
+			list.add(idx < 0 ? null : strings[idx]);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,579 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal pull parser of JSON documents. Reads the tokens one at a time from the 
+ * underlying {@link Reader}, so that large responses may be decoded incrementally 
+ * without building the whole document in memory.
+ * <p>
+ * Numbers are exposed as text and parsed on demand; numeric strings (e.g., "12") are 
+ * accepted by the number accessors and numbers by {@link #nextString()}. Skipped values
+ * are not materialized, and names and short strings are shared among the tokens with the 
+ * same content.
+ * 
+ * @author raman
+ *
+ */
+public class JsonReader implements Closeable {
+
+	/**
+	 * JSON token types
+	 */
+	public enum Token {
+		BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int EMPTY_ARRAY = 1;
+	private static final int NONEMPTY_ARRAY = 2;
+	private static final int EMPTY_OBJECT = 3;
+	private static final int DANGLING_NAME = 4;
+	private static final int NONEMPTY_OBJECT = 5;
+	private static final int EMPTY_DOCUMENT = 6;
+	private static final int NONEMPTY_DOCUMENT = 7;
+
+	private static final int SHARED_SIZE = 512;
+	private static final int SHARED_MAX_LENGTH = 16;
+
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int pos;
+	private int limit;
+	private long offset;
+
+	private int[] stack = new int[32];
+	private int stackSize;
+
+	private Token peeked;
+	private String peekedValue;
+	// the value of the peeked name, string or number is still in the builder
+	private boolean buffered;
+	private final StringBuilder sb = new StringBuilder();
+	// names and short strings recur in the responses: share their instances
+	private final String[] shared = new String[SHARED_SIZE];
+
+	/**
+	 * @param in source of the JSON document
+	 */
+	public JsonReader(Reader in) {
+		this.in = in;
+		stack[stackSize++] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * @return type of the next token without consuming it
+	 * @throws IOException
+	 */
+	public Token peek() throws IOException {
+		if (peeked != null) {
+			return peeked;
+		}
+		int c;
+		switch (stack[stackSize - 1]) {
+		case EMPTY_ARRAY:
+			stack[stackSize - 1] = NONEMPTY_ARRAY;
+			c = nextNonWhitespace(true);
+			if (c == ']') return peeked(Token.END_ARRAY, null);
+			pos--;
+			break;
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace(true);
+			if (c == ']') return peeked(Token.END_ARRAY, null);
+			if (c != ',') throw syntaxError("expected ',' or ']'");
+			break;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			boolean empty = stack[stackSize - 1] == EMPTY_OBJECT;
+			stack[stackSize - 1] = DANGLING_NAME;
+			c = nextNonWhitespace(true);
+			if (c == '}') return peeked(Token.END_OBJECT, null);
+			if (!empty) {
+				if (c != ',') throw syntaxError("expected ',' or '}'");
+				c = nextNonWhitespace(true);
+			}
+			if (c != '"') throw syntaxError("expected name");
+			readString();
+			return buffered(Token.NAME);
+		case DANGLING_NAME:
+			stack[stackSize - 1] = NONEMPTY_OBJECT;
+			c = nextNonWhitespace(true);
+			if (c != ':') throw syntaxError("expected ':'");
+			break;
+		case EMPTY_DOCUMENT:
+			stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+			break;
+		case NONEMPTY_DOCUMENT:
+			c = nextNonWhitespace(false);
+			if (c == -1) return peeked(Token.END_DOCUMENT, null);
+			throw syntaxError("multiple top-level values");
+		}
+		return peekValue();
+	}
+
+	private Token peekValue() throws IOException {
+		int c = nextNonWhitespace(true);
+		switch (c) {
+		case '{':
+			return peeked(Token.BEGIN_OBJECT, null);
+		case '[':
+			return peeked(Token.BEGIN_ARRAY, null);
+		case '"':
+			readString();
+			return buffered(Token.STRING);
+		case 't':
+			readLiteral("rue");
+			return peeked(Token.BOOLEAN, "true");
+		case 'f':
+			readLiteral("alse");
+			return peeked(Token.BOOLEAN, "false");
+		case 'n':
+			readLiteral("ull");
+			return peeked(Token.NULL, null);
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				pos--;
+				readNumber();
+				return buffered(Token.NUMBER);
+			}
+			throw syntaxError("unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private Token peeked(Token token, String value) {
+		peeked = token;
+		peekedValue = value;
+		buffered = false;
+		return token;
+	}
+
+	private Token buffered(Token token) {
+		peeked = token;
+		peekedValue = null;
+		buffered = true;
+		return token;
+	}
+
+	private String value() {
+		if (buffered) {
+			peekedValue = sb.toString();
+			buffered = false;
+		}
+		return peekedValue;
+	}
+
+	private String sharedValue() {
+		if (!buffered || sb.length() > SHARED_MAX_LENGTH) {
+			return value();
+		}
+		int hash = 0;
+		for (int i = 0; i < sb.length(); i++) {
+			hash = 31 * hash + sb.charAt(i);
+		}
+		int index = (hash ^ (hash >>> 16)) & (SHARED_SIZE - 1);
+		String s = shared[index];
+		if (s == null || !contentEquals(s)) {
+			s = sb.toString();
+			shared[index] = s;
+		}
+		peekedValue = s;
+		buffered = false;
+		return s;
+	}
+
+	private boolean contentEquals(String s) {
+		if (s.length() != sb.length()) return false;
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) != sb.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Consume the beginning of an array
+	 * @throws IOException
+	 */
+	public void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	/**
+	 * Consume the end of the current array
+	 * @throws IOException
+	 */
+	public void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		stackSize--;
+	}
+
+	/**
+	 * Consume the beginning of an object
+	 * @throws IOException
+	 */
+	public void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	/**
+	 * Consume the end of the current object
+	 * @throws IOException
+	 */
+	public void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		stackSize--;
+	}
+
+	/**
+	 * @return true if the current array or object has more elements
+	 * @throws IOException
+	 */
+	public boolean hasNext() throws IOException {
+		Token t = peek();
+		return t != Token.END_ARRAY && t != Token.END_OBJECT && t != Token.END_DOCUMENT;
+	}
+
+	/**
+	 * @return next property name
+	 * @throws IOException
+	 */
+	public String nextName() throws IOException {
+		expect(Token.NAME);
+		return sharedValue();
+	}
+
+	/**
+	 * @return next string (or number) value, null for JSON null
+	 * @throws IOException
+	 */
+	public String nextString() throws IOException {
+		Token t = peek();
+		if (t == Token.NULL) {
+			peeked = null;
+			return null;
+		}
+		if (t != Token.STRING && t != Token.NUMBER && t != Token.BOOLEAN) {
+			throw syntaxError("expected string but was " + t);
+		}
+		peeked = null;
+		return t == Token.STRING ? sharedValue() : value();
+	}
+
+	/**
+	 * @return next long value (number or numeric string)
+	 * @throws IOException
+	 */
+	public long nextLong() throws IOException {
+		if (peek() == Token.NUMBER && buffered) {
+			// plain integers are parsed without creating the string
+			int length = sb.length();
+			boolean negative = length > 0 && sb.charAt(0) == '-';
+			int i = negative ? 1 : 0;
+			if (length > i && length - i <= 18) {
+				long result = 0;
+				for (; i < length; i++) {
+					char c = sb.charAt(i);
+					if (c < '0' || c > '9') break;
+					result = result * 10 + (c - '0');
+				}
+				if (i == length) {
+					peeked = null;
+					buffered = false;
+					return negative ? -result : result;
+				}
+			}
+		}
+		String value = nextNumber();
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return (long) Double.parseDouble(value);
+		}
+	}
+
+	/**
+	 * @return next int value (number or numeric string)
+	 * @throws IOException
+	 */
+	public int nextInt() throws IOException {
+		return (int) nextLong();
+	}
+
+	/**
+	 * @return next double value (number or numeric string)
+	 * @throws IOException
+	 */
+	public double nextDouble() throws IOException {
+		return Double.parseDouble(nextNumber());
+	}
+
+	/**
+	 * @return next boolean value
+	 * @throws IOException
+	 */
+	public boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		return "true".equals(value());
+	}
+
+	/**
+	 * Consume the next null value
+	 * @throws IOException
+	 */
+	public void nextNull() throws IOException {
+		expect(Token.NULL);
+	}
+
+	/**
+	 * Skip the next value (with its property name if positioned on a name), 
+	 * including all nested elements.
+	 * @throws IOException
+	 */
+	public void skipValue() throws IOException {
+		if (peek() == Token.NAME) {
+			nextName();
+		}
+		int depth = 0;
+		do {
+			switch (peek()) {
+			case BEGIN_ARRAY:
+				beginArray();
+				depth++;
+				break;
+			case BEGIN_OBJECT:
+				beginObject();
+				depth++;
+				break;
+			case END_ARRAY:
+				endArray();
+				depth--;
+				break;
+			case END_OBJECT:
+				endObject();
+				depth--;
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("unexpected end of document");
+			default:
+				peeked = null;
+				buffered = false;
+			}
+		} while (depth > 0);
+	}
+
+	/**
+	 * Read the next value as a generic tree of {@link Map}, {@link List}, {@link String}, 
+	 * {@link Long}, {@link Double}, {@link Boolean} and null elements.
+	 * @return
+	 * @throws IOException
+	 */
+	public Object readValue() throws IOException {
+		switch (peek()) {
+		case BEGIN_ARRAY:
+			List<Object> list = new ArrayList<Object>();
+			beginArray();
+			while (hasNext()) {
+				list.add(readValue());
+			}
+			endArray();
+			return list;
+		case BEGIN_OBJECT:
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			beginObject();
+			while (hasNext()) {
+				String name = nextName();
+				map.put(name, readValue());
+			}
+			endObject();
+			return map;
+		case STRING:
+			return nextString();
+		case NUMBER:
+			String value = nextString();
+			if (value.indexOf('.') < 0 && value.indexOf('e') < 0 && value.indexOf('E') < 0) {
+				try {
+					return Long.valueOf(value);
+				} catch (NumberFormatException e) {
+					// too large, fall back to double
+				}
+			}
+			return Double.valueOf(value);
+		case BOOLEAN:
+			return nextBoolean();
+		case NULL:
+			nextNull();
+			return null;
+		default:
+			throw syntaxError("expected value but was " + peek());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		peeked = null;
+		buffered = false;
+		stack[0] = NONEMPTY_DOCUMENT;
+		stackSize = 1;
+		in.close();
+	}
+
+	private String nextNumber() throws IOException {
+		Token t = peek();
+		if (t != Token.NUMBER && t != Token.STRING) {
+			throw syntaxError("expected number but was " + t);
+		}
+		peeked = null;
+		return value().trim();
+	}
+
+	private void expect(Token token) throws IOException {
+		if (peek() != token) {
+			throw syntaxError("expected " + token + " but was " + peek());
+		}
+		peeked = null;
+	}
+
+	private void push(int scope) {
+		if (stackSize == stack.length) {
+			int[] newStack = new int[stackSize * 2];
+			System.arraycopy(stack, 0, newStack, 0, stackSize);
+			stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private boolean fill() throws IOException {
+		offset += limit;
+		pos = 0;
+		limit = 0;
+		int n;
+		while ((n = in.read(buffer, 0, buffer.length)) == 0) {
+			// retry
+		}
+		if (n < 0) {
+			return false;
+		}
+		limit = n;
+		return true;
+	}
+
+	private int nextChar() throws IOException {
+		if (pos == limit && !fill()) {
+			throw syntaxError("unexpected end of input");
+		}
+		return buffer[pos++];
+	}
+
+	private int nextNonWhitespace(boolean required) throws IOException {
+		while (true) {
+			if (pos == limit && !fill()) {
+				if (required) throw syntaxError("unexpected end of input");
+				return -1;
+			}
+			char c = buffer[pos++];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return c;
+			}
+		}
+	}
+
+	private void readString() throws IOException {
+		sb.setLength(0);
+		while (true) {
+			// copy the unescaped chunks in bulk
+			int start = pos;
+			while (pos < limit) {
+				char c = buffer[pos++];
+				if (c == '"') {
+					sb.append(buffer, start, pos - start - 1);
+					return;
+				}
+				if (c == '\\') {
+					sb.append(buffer, start, pos - start - 1);
+					sb.append(readEscape());
+					start = pos;
+				}
+			}
+			sb.append(buffer, start, pos - start);
+			if (!fill()) {
+				throw syntaxError("unterminated string");
+			}
+		}
+	}
+
+	private char readEscape() throws IOException {
+		int c = nextChar();
+		switch (c) {
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int h = nextChar();
+				int digit = Character.digit(h, 16);
+				if (digit < 0) throw syntaxError("invalid escape sequence");
+				value = (value << 4) + digit;
+			}
+			return (char) value;
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		default:
+			return (char) c;
+		}
+	}
+
+	private void readLiteral(String rest) throws IOException {
+		for (int i = 0; i < rest.length(); i++) {
+			if (nextChar() != rest.charAt(i)) {
+				throw syntaxError("invalid literal");
+			}
+		}
+	}
+
+	private void readNumber() throws IOException {
+		sb.setLength(0);
+		while (true) {
+			if (pos == limit && !fill()) {
+				break;
+			}
+			char c = buffer[pos];
+			if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+				sb.append(c);
+				pos++;
+			} else {
+				break;
+			}
+		}
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException("Malformed JSON at offset " + (offset + pos) + ": " + message);
+	}
+}
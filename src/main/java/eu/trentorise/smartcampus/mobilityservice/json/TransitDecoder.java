@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.json;
+
+import it.sayservice.platform.smartplanner.data.message.alerts.CreatorType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.mobilityservice.cache.IdDictionary;
+import eu.trentorise.smartcampus.mobilityservice.model.CompactTimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.Delay;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.TripData;
+
+/**
+ * Single-pass decoder of the transit responses (next trips, transit times and delays). Builds the model objects directly from 
+ * the {@link JsonReader} tokens, without the intermediate tree of maps and lists.
+ * 
+ * @author raman
+ *
+ */
+public class TransitDecoder {
+
+	private final IdDictionary dictionary;
+
+	/**
+	 * @param dictionary dictionary the decoded ids are interned in, may be null
+	 */
+	public TransitDecoder(IdDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Decode the response of the next trips (limited timetable) call: an object mapping 
+	 * route ids to the route name, short name, trips and trip delays.
+	 * @param in
+	 * @return list of {@link TripData}, in the order of the response
+	 * @throws IOException
+	 */
+	public List<TripData> readTripData(Reader in) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		List<TripData> result = new ArrayList<TripData>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String routeId = intern(reader.nextName());
+			String name = null, shortName = null;
+			Map<String, Delay> delays = null;
+			int first = result.size();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String field = reader.nextName();
+				if ("name".equals(field)) {
+					name = intern(reader.nextString());
+				} else if ("route".equals(field)) {
+					shortName = intern(reader.nextString());
+				} else if ("times".equals(field)) {
+					reader.beginArray();
+					while (reader.hasNext()) {
+						TripData t = readTrip(reader);
+						t.setRouteId(routeId);
+						result.add(t);
+					}
+					reader.endArray();
+				} else if ("delays".equals(field)) {
+					delays = readTripDelays(reader);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			// name and delays may follow the trips
+			for (int i = first; i < result.size(); i++) {
+				TripData t = result.get(i);
+				t.setRouteName(name);
+				t.setRouteShortName(shortName);
+				if (delays != null) {
+					t.setDelay(delays.get(t.getTripId()));
+				}
+			}
+		}
+		reader.endObject();
+		return result;
+	}
+
+	private TripData readTrip(JsonReader reader) throws IOException {
+		TripData t = new TripData();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String field = reader.nextName();
+			if ("time".equals(field) && reader.peek() != JsonReader.Token.NULL) {
+				t.setTime(reader.nextLong());
+			} else if ("trip".equals(field) && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String tripField = reader.nextName();
+					if ("id".equals(tripField)) {
+						t.setTripId(intern(reader.nextString()));
+					} else if ("agency".equals(tripField)) {
+						t.setAgencyId(intern(reader.nextString()));
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return t;
+	}
+
+	/**
+	 * Decode the response of the transit times call into a new {@link TimeTable}
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public TimeTable readTimeTable(Reader in) throws IOException {
+		return readTimeTable(in, new TimeTable());
+	}
+
+	/**
+	 * Decode the response of the transit times call into the specified timetable, 
+	 * e.g., a {@link CompactTimeTable}. The response contains the stops and the trip
+	 * columns (trip ids, times and delays) of the day, each wrapped in a single element array.
+	 * @param in
+	 * @param tt timetable to fill
+	 * @return the timetable
+	 * @throws IOException
+	 */
+	public <T extends TimeTable> T readTimeTable(Reader in, T tt) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		// the same times recur across the trips
+		Map<String, String> times = new HashMap<String, String>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String field = reader.nextName();
+			if ("stops".equals(field)) {
+				tt.setStops(readIds(reader));
+			} else if ("stopsId".equals(field)) {
+				tt.setStopsId(readIds(reader));
+			} else if ("tripIds".equals(field)) {
+				if (beginColumn(reader)) {
+					tt.setTripIds(readIds(reader));
+					endColumn(reader);
+				}
+			} else if ("times".equals(field)) {
+				if (beginColumn(reader)) {
+					tt.setTimes(readTimeMatrix(reader, times));
+					endColumn(reader);
+				}
+			} else if ("delays".equals(field)) {
+				if (beginColumn(reader)) {
+					tt.setDelays(readDelayList(reader));
+					endColumn(reader);
+				}
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (tt.getDelays() == null) {
+			tt.setDelays(new ArrayList<Delay>());
+		}
+		return tt;
+	}
+
+	/**
+	 * Decode only the delays of the trips from the response of the transit times 
+	 * or transit delays call, skipping the other sections.
+	 * @param in
+	 * @return list of delays, one per trip
+	 * @throws IOException
+	 */
+	public List<Delay> readDelays(Reader in) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		List<Delay> result = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String field = reader.nextName();
+			if ("delays".equals(field)) {
+				if (beginColumn(reader)) {
+					result = readDelayList(reader);
+					endColumn(reader);
+				}
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return result == null ? new ArrayList<Delay>() : result;
+	}
+
+	/*
+	 * Enter the first element of a column wrapper array, returns false if there is none. 
+	 */
+	private boolean beginColumn(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return false;
+		}
+		reader.beginArray();
+		if (!reader.hasNext()) {
+			reader.endArray();
+			return false;
+		}
+		return true;
+	}
+
+	private void endColumn(JsonReader reader) throws IOException {
+		while (reader.hasNext()) {
+			reader.skipValue();
+		}
+		reader.endArray();
+	}
+
+	private List<String> readIds(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		List<String> list = new ArrayList<String>();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			list.add(intern(reader.nextString()));
+		}
+		reader.endArray();
+		return list;
+	}
+
+	private List<String> readTimes(JsonReader reader, Map<String, String> times) throws IOException {
+		if (reader.peek() == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		List<String> list = new ArrayList<String>();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			String time = reader.nextString();
+			if (time != null) {
+				String shared = times.get(time);
+				if (shared == null) {
+					times.put(time, time);
+				} else {
+					time = shared;
+				}
+			}
+			list.add(time);
+		}
+		reader.endArray();
+		return list;
+	}
+
+	private List<List<String>> readTimeMatrix(JsonReader reader, Map<String, String> times) throws IOException {
+		if (reader.peek() == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		List<List<String>> matrix = new ArrayList<List<String>>();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			matrix.add(readTimes(reader, times));
+		}
+		reader.endArray();
+		return matrix;
+	}
+
+	private List<Delay> readDelayList(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		List<Delay> list = new ArrayList<Delay>();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			list.add(readDelay(reader));
+		}
+		reader.endArray();
+		return list;
+	}
+
+	private Map<String, Delay> readTripDelays(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		Map<String, Delay> delays = new HashMap<String, Delay>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String tripId = reader.nextName();
+			delays.put(tripId, readDelay(reader));
+		}
+		reader.endObject();
+		return delays;
+	}
+
+	/**
+	 * Read a delay object (map of source types to values)
+	 * @param reader
+	 * @return new delay, or {@link Delay#NO_DELAY} if there are no values
+	 * @throws IOException
+	 */
+	Delay readDelay(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonReader.Token.NULL) {
+			reader.nextNull();
+			return Delay.NO_DELAY;
+		}
+		Delay delay = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			CreatorType type = CreatorType.getAlertType(reader.nextName());
+			if (type == null) {
+				reader.skipValue();
+				continue;
+			}
+			JsonReader.Token token = reader.peek();
+			String value = token == JsonReader.Token.BEGIN_OBJECT || token == JsonReader.Token.BEGIN_ARRAY 
+					? String.valueOf(reader.readValue()) : reader.nextString();
+			if (delay == null) delay = new Delay();
+			delay.getValues().put(type, value);
+		}
+		reader.endObject();
+		return delay == null ? Delay.NO_DELAY : delay;
+	}
+
+	private String intern(String id) {
+		return dictionary == null ? id : dictionary.intern(id);
+	}
+}
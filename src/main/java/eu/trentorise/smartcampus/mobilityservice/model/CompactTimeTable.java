@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link TimeTable} backed by primitive arrays: times are stored as minutes of day in a 
+ * flat trip by stop matrix, and the stop and trip ids and stop names are dictionary-encoded. 
+ * The list getters return read-only views over the arrays, while the setters encode the 
+ * provided lists.
+ * <p>
+ * Times in a format different from 'HH:mm' are kept as they are.
+ * 
+ * @author raman
+ *
+ */
+public class CompactTimeTable extends TimeTable {
+	private static final long serialVersionUID = -2170402632736233618L;
+
+	/** value of a missing (empty) time */
+	public static final int NO_TIME = -1;
+	private static final int NULL_TIME = -2;
+	private static final int OTHER_TIME = -3;
+
+	private String[] dictionary = new String[0];
+	private Map<String, Integer> codes = new HashMap<String, Integer>();
+
+	private int[] stops;
+	private int[] stopsId;
+	private int[] tripIds;
+	private int[] routeIds;
+
+	private int trips = -1;
+	private int width;
+	private int[] rowLengths;
+	private int[] minutes;
+	private Map<Integer, String> otherTimes;
+
+	public CompactTimeTable() {
+	}
+
+	/**
+	 * Create a compact copy of the timetable
+	 * @param source
+	 */
+	public CompactTimeTable(TimeTable source) {
+		setStops(source.getStops());
+		setStopsId(source.getStopsId());
+		setTripIds(source.getTripIds());
+		setRouteIds(source.getRouteIds());
+		setTimes(source.getTimes());
+		setDelays(source.getDelays());
+	}
+
+	/**
+	 * @return number of trips in the times matrix
+	 */
+	public int tripCount() {
+		return Math.max(trips, 0);
+	}
+
+	/**
+	 * @param trip trip position
+	 * @return number of stop times of the trip
+	 */
+	public int getStopCount(int trip) {
+		return rowLengths[trip];
+	}
+
+	/**
+	 * @param trip trip position
+	 * @param stop stop position
+	 * @return minutes of day of the time of the trip at the stop (see {@link TimeUtils#parseMinutes(String)}), 
+	 * {@link #NO_TIME} if the time is missing or invalid
+	 */
+	public int getMinutes(int trip, int stop) {
+		int position = trip * width + stop;
+		int value = minutes[position];
+		if (value == OTHER_TIME) {
+			// kept as string, may still be a valid time (e.g., 'H:mm')
+			value = TimeUtils.parseMinutes(otherTimes.get(position));
+		}
+		return value < 0 ? NO_TIME : value;
+	}
+
+	/**
+	 * @param stopId
+	 * @return position of the stop, -1 if not present
+	 */
+	public int indexOfStop(String stopId) {
+		return indexOf(stopsId, stopId);
+	}
+
+	/**
+	 * @param tripId
+	 * @return position of the trip, -1 if not present
+	 */
+	public int indexOfTrip(String tripId) {
+		return indexOf(tripIds, tripId);
+	}
+
+	@Override
+	public List<String> getStops() {
+		return view(stops);
+	}
+
+	@Override
+	public void setStops(List<String> stops) {
+		this.stops = encode(stops);
+	}
+
+	@Override
+	public List<String> getStopsId() {
+		return view(stopsId);
+	}
+
+	@Override
+	public void setStopsId(List<String> stopsId) {
+		this.stopsId = encode(stopsId);
+	}
+
+	@Override
+	public List<String> getTripIds() {
+		return view(tripIds);
+	}
+
+	@Override
+	public void setTripIds(List<String> tripIds) {
+		this.tripIds = encode(tripIds);
+	}
+
+	@Override
+	public List<String> getRouteIds() {
+		return view(routeIds);
+	}
+
+	@Override
+	public void setRouteIds(List<String> routeIds) {
+		this.routeIds = encode(routeIds);
+	}
+
+	@Override
+	public List<List<String>> getTimes() {
+		if (trips < 0) return null;
+		return new AbstractList<List<String>>() {
+			@Override
+			public List<String> get(final int trip) {
+				if (trip < 0 || trip >= trips) throw new IndexOutOfBoundsException("Trip: " + trip);
+				if (rowLengths[trip] < 0) return null;
+				return new AbstractList<String>() {
+					@Override
+					public String get(int stop) {
+						if (stop < 0 || stop >= rowLengths[trip]) throw new IndexOutOfBoundsException("Stop: " + stop);
+						return toTime(trip * width + stop);
+					}
+
+					@Override
+					public int size() {
+						return rowLengths[trip];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return trips;
+			}
+		};
+	}
+
+	@Override
+	public void setTimes(List<List<String>> times) {
+		otherTimes = null;
+		if (times == null) {
+			trips = -1;
+			width = 0;
+			rowLengths = null;
+			minutes = null;
+			return;
+		}
+		trips = times.size();
+		width = 0;
+		rowLengths = new int[trips];
+		for (int t = 0; t < trips; t++) {
+			List<String> row = times.get(t);
+			rowLengths[t] = row == null ? -1 : row.size();
+			width = Math.max(width, rowLengths[t]);
+		}
+		minutes = new int[trips * width];
+		Arrays.fill(minutes, NULL_TIME);
+		for (int t = 0; t < trips; t++) {
+			List<String> row = times.get(t);
+			if (row == null) continue;
+			int s = 0;
+			for (String time : row) {
+				int position = t * width + s++;
+				int value = toMinutes(time);
+				if (value == OTHER_TIME) {
+					if (otherTimes == null) otherTimes = new HashMap<Integer, String>();
+					otherTimes.put(position, time);
+				}
+				minutes[position] = value;
+			}
+		}
+	}
+
+	private String toTime(int position) {
+		int value = minutes[position];
+		if (value >= 0) {
+			return TimeUtils.formatMinutes(value);
+		}
+		if (value == NO_TIME) return "";
+		if (value == NULL_TIME) return null;
+		return otherTimes.get(position);
+	}
+
+	/**
+	 * @return minutes of day of a canonical 'HH:mm' time, or the code of the missing or different time 
+	 */
+	private static int toMinutes(String time) {
+		if (time == null) return NULL_TIME;
+		if (time.length() == 0) return NO_TIME;
+		int m = TimeUtils.toMinutes(time);
+		return m < 0 ? OTHER_TIME : m;
+	}
+
+	private int[] encode(List<String> list) {
+		if (list == null) return null;
+		int[] result = new int[list.size()];
+		int i = 0;
+		for (String s : list) {
+			if (s == null) {
+				result[i++] = -1;
+				continue;
+			}
+			Integer code = codes.get(s);
+			if (code == null) {
+				code = codes.size();
+				codes.put(s, code);
+				if (code == dictionary.length) {
+					dictionary = Arrays.copyOf(dictionary, Math.max(16, code * 2));
+				}
+				dictionary[code] = s;
+			}
+			result[i++] = code;
+		}
+		return result;
+	}
+
+	private int indexOf(int[] values, String s) {
+		Integer code = codes.get(s);
+		if (values == null || code == null) return -1;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == code) return i;
+		}
+		return -1;
+	}
+
+	private List<String> view(final int[] values) {
+		if (values == null) return null;
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				int code = values[index];
+				return code < 0 ? null : dictionary[code];
+			}
+
+			@Override
+			public int size() {
+				return values.length;
+			}
+		};
+	}
+}
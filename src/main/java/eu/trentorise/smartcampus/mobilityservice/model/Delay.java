@@ -18,18 +18,81 @@ package eu.trentorise.smartcampus.mobilityservice.model;
 import it.sayservice.platform.smartplanner.data.message.alerts.CreatorType;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
 
 /**
  * Representation of public transport delay. May contain multiple values (one for each source type).
+ * Use the shared {@link #NO_DELAY} instance for trips without delay values.
  * @author raman
  *
  */
 public class Delay implements Serializable {
 	private static final long serialVersionUID = 9010927803775341363L;
 
-	Map<CreatorType, String> values = new HashMap<CreatorType, String>(2);
+	/**
+	 * Shared unmodifiable instance without delay values
+	 */
+	public static final Delay NO_DELAY = new Delay(Collections.unmodifiableMap(new EnumMap<CreatorType, String>(CreatorType.class)), true);
+
+	Map<CreatorType, String> values;
+	private final boolean shared;
+
+	public Delay() {
+		this(new EnumMap<CreatorType, String>(CreatorType.class), false);
+	}
+
+	private Delay(Map<CreatorType, String> values, boolean shared) {
+		this.values = values;
+		this.shared = shared;
+	}
+
+	/**
+	 * Create the delay from the JSON representation (map of source types to values)
+	 * @param map
+	 * @return new delay, or {@link #NO_DELAY} if there are no values
+	 */
+	public static Delay fromMap(Map<?, ?> map) {
+		if (map == null || map.isEmpty()) {
+			return NO_DELAY;
+		}
+		Delay delay = null;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			CreatorType type = entry.getKey() == null ? null : CreatorType.getAlertType(entry.getKey().toString());
+			if (type == null) continue;
+			if (delay == null) delay = new Delay();
+			delay.values.put(type, entry.getValue() == null ? null : entry.getValue().toString());
+		}
+		return delay == null ? NO_DELAY : delay;
+	}
+
+	/**
+	 * @return true if there is at least one delay value
+	 */
+	public boolean hasDelay() {
+		return values != null && !values.isEmpty();
+	}
+
+	/**
+	 * @param type source type
+	 * @return delay in minutes reported by the source, 0 if missing or not numeric 
+	 */
+	public int getMinutes(CreatorType type) {
+		String value = values == null ? null : values.get(type);
+		if (value == null || value.length() == 0) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			try {
+				return (int) Math.round(Double.parseDouble(value));
+			} catch (NumberFormatException e1) {
+				return 0;
+			}
+		}
+	}
 
 	/**
 	 * @return the values
@@ -42,6 +105,13 @@ public class Delay implements Serializable {
 	 * @param values the values to set
 	 */
 	public void setValues(Map<CreatorType, String> values) {
+		if (shared) {
+			throw new UnsupportedOperationException("Shared instance cannot be modified");
+		}
 		this.values = values;
 	}
+
+	private Object readResolve() {
+		return shared ? NO_DELAY : this;
+	}
 }
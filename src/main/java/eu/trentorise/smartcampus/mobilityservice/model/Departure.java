@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.model;
+
+import java.io.Serializable;
+
+/**
+ * Departure of a trip from a stop, as returned by the {@link DepartureIndex} queries: scheduled 
+ * and expected time (minutes of day) and the real-time delay (if any).
+ * @author raman
+ *
+ */
+public class Departure implements Serializable {
+	private static final long serialVersionUID = 2710461582830184265L;
+
+	private String tripId;
+	private String stopId;
+	private int scheduled;
+	private int expected;
+	private Delay delay;
+
+	public Departure() {
+	}
+
+	public Departure(String tripId, String stopId, int scheduled, int expected, Delay delay) {
+		this.tripId = tripId;
+		this.stopId = stopId;
+		this.scheduled = scheduled;
+		this.expected = expected;
+		this.delay = delay;
+	}
+
+	public String getTripId() {
+		return tripId;
+	}
+
+	public void setTripId(String tripId) {
+		this.tripId = tripId;
+	}
+
+	public String getStopId() {
+		return stopId;
+	}
+
+	public void setStopId(String stopId) {
+		this.stopId = stopId;
+	}
+
+	/**
+	 * @return scheduled time in minutes of day
+	 */
+	public int getScheduled() {
+		return scheduled;
+	}
+
+	public void setScheduled(int scheduled) {
+		this.scheduled = scheduled;
+	}
+
+	/**
+	 * @return expected time in minutes of day, i.e., scheduled time plus delay
+	 */
+	public int getExpected() {
+		return expected;
+	}
+
+	public void setExpected(int expected) {
+		this.expected = expected;
+	}
+
+	/**
+	 * @return the real-time delay, null if none
+	 */
+	public Delay getDelay() {
+		return delay;
+	}
+
+	public void setDelay(Delay delay) {
+		this.delay = delay;
+	}
+
+	@Override
+	public String toString() {
+		return tripId + "@" + stopId + " " + scheduled + "+" + (expected - scheduled);
+	}
+}
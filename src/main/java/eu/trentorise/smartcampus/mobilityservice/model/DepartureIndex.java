@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.model;
+
+import it.sayservice.platform.smartplanner.data.message.alerts.CreatorType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Departure index of a {@link TimeTable}: the times of each stop are parsed once and kept 
+ * in sorted primitive arrays, so that the next departures from a stop after a time, or within 
+ * a period, are found with a binary search. The real-time delays of the trips are applied
+ * to the results and may be replaced with {@link #setDelays(List)} without rebuilding the index.
+ * <p>
+ * The times are expressed in minutes of the timetable day. The index is thread-safe.
+ * 
+ * @author raman
+ *
+ */
+public class DepartureIndex {
+
+	private static final Comparator<Departure> BY_EXPECTED = new Comparator<Departure>() {
+		@Override
+		public int compare(Departure o1, Departure o2) {
+			return o1.getExpected() < o2.getExpected() ? -1 : o1.getExpected() == o2.getExpected() ? 0 : 1;
+		}
+	};
+
+	private final String[] tripIds;
+	private final Map<String, StopDepartures> departures = new HashMap<String, StopDepartures>();
+	private volatile Delays delays;
+
+	/**
+	 * Index the times of the timetable, with the delays of the timetable (if any)
+	 * @param tt
+	 */
+	public DepartureIndex(TimeTable tt) {
+		List<String> trips = tt.getTripIds() == null ? Collections.<String>emptyList() : tt.getTripIds();
+		List<String> stopIds = tt.getStopsId() == null ? Collections.<String>emptyList() : tt.getStopsId();
+		tripIds = trips.toArray(new String[trips.size()]);
+
+		if (tt instanceof CompactTimeTable) {
+			// the times are already in minutes
+			CompactTimeTable compact = (CompactTimeTable) tt;
+			for (int t = 0; t < tripIds.length && t < compact.tripCount(); t++) {
+				for (int s = 0; s < compact.getStopCount(t) && s < stopIds.size(); s++) {
+					add(stopIds.get(s), compact.getMinutes(t, s), t);
+				}
+			}
+		} else if (tt.getTimes() != null) {
+			List<List<String>> times = tt.getTimes();
+			for (int t = 0; t < tripIds.length && t < times.size(); t++) {
+				List<String> row = times.get(t);
+				if (row == null) continue;
+				for (int s = 0; s < row.size() && s < stopIds.size(); s++) {
+					add(stopIds.get(s), TimeUtils.parseMinutes(row.get(s)), t);
+				}
+			}
+		}
+		for (StopDepartures d : departures.values()) {
+			d.sort();
+		}
+		setDelays(tt.getDelays());
+	}
+
+	private void add(String stopId, int minutes, int trip) {
+		if (minutes < 0) return;
+		StopDepartures d = departures.get(stopId);
+		if (d == null) {
+			d = new StopDepartures();
+			departures.put(stopId, d);
+		}
+		d.add(minutes, trip);
+	}
+
+	/**
+	 * Replace the delays applied to the departures
+	 * @param delays delays of the trips, in the order of the timetable trips, e.g., 
+	 * as returned by {@link eu.trentorise.smartcampus.mobilityservice.MobilityDataService#getDelays(String, String, String)}.
+	 * Null to clear the delays. 
+	 */
+	public void setDelays(List<Delay> delays) {
+		this.delays = new Delays(delays, tripIds.length);
+	}
+
+	/**
+	 * @param stopId
+	 * @param minutes time of the request, in minutes of day
+	 * @param count max number of departures to return
+	 * @return the first departures from the stop expected at or after the time, ordered by the expected time
+	 */
+	public List<Departure> getNextDepartures(String stopId, int minutes, int count) {
+		StopDepartures d = departures.get(stopId);
+		if (d == null || count <= 0) {
+			return new ArrayList<Departure>();
+		}
+		Delays current = delays;
+		// best departures so far, ordered by the expected time
+		int[] expected = new int[count];
+		int[] positions = new int[count];
+		int n = 0;
+		for (int i = d.search(minutes - current.max); i < d.size(); i++) {
+			int scheduled = d.getMinutes(i);
+			if (n == count && scheduled + current.min > expected[n - 1]) break;
+			int e = scheduled + current.minutes[d.getTrip(i)];
+			if (e < minutes || (n == count && e >= expected[n - 1])) continue;
+			int j = n == count ? n - 1 : n++;
+			while (j > 0 && expected[j - 1] > e) {
+				expected[j] = expected[j - 1];
+				positions[j] = positions[j - 1];
+				j--;
+			}
+			expected[j] = e;
+			positions[j] = i;
+		}
+		List<Departure> result = new ArrayList<Departure>(n);
+		for (int i = 0; i < n; i++) {
+			result.add(toDeparture(stopId, d, positions[i], current));
+		}
+		return result;
+	}
+
+	/**
+	 * @param stopId
+	 * @param from start of the period, in minutes of day
+	 * @param to end of the period (inclusive), in minutes of day
+	 * @return the departures from the stop expected within the period, ordered by the expected time
+	 */
+	public List<Departure> getDepartures(String stopId, int from, int to) {
+		List<Departure> result = new ArrayList<Departure>();
+		StopDepartures d = departures.get(stopId);
+		if (d == null) {
+			return result;
+		}
+		Delays current = delays;
+		boolean sorted = true;
+		for (int i = d.search(from - current.max); i < d.size() && d.getMinutes(i) + current.min <= to; i++) {
+			int e = d.getMinutes(i) + current.minutes[d.getTrip(i)];
+			if (e < from || e > to) continue;
+			if (!result.isEmpty() && result.get(result.size() - 1).getExpected() > e) sorted = false;
+			result.add(toDeparture(stopId, d, i, current));
+		}
+		if (!sorted) {
+			Collections.sort(result, BY_EXPECTED);
+		}
+		return result;
+	}
+
+	/**
+	 * @return ids of the indexed stops
+	 */
+	public List<String> getStopIds() {
+		return new ArrayList<String>(departures.keySet());
+	}
+
+	private Departure toDeparture(String stopId, StopDepartures d, int i, Delays current) {
+		int trip = d.getTrip(i);
+		return new Departure(tripIds[trip], stopId, d.getMinutes(i), d.getMinutes(i) + current.minutes[trip], current.delays[trip]);
+	}
+
+	/**
+	 * Delays of the trips in minutes, with their bounds
+	 */
+	private static class Delays {
+		private final int[] minutes;
+		private final Delay[] delays;
+		private int min;
+		private int max;
+
+		private Delays(List<Delay> list, int trips) {
+			minutes = new int[trips];
+			delays = new Delay[trips];
+			if (list == null) return;
+			for (int t = 0; t < trips && t < list.size(); t++) {
+				Delay delay = list.get(t);
+				if (delay == null || !delay.hasDelay()) continue;
+				delays[t] = delay;
+				minutes[t] = toMinutes(delay);
+				min = Math.min(min, minutes[t]);
+				max = Math.max(max, minutes[t]);
+			}
+		}
+
+		/**
+		 * @return delay in minutes, as reported by the service if present or by the users otherwise; 0 if missing 
+		 */
+		private static int toMinutes(Delay delay) {
+			if (delay.values != null && delay.values.get(CreatorType.SERVICE) != null) {
+				return delay.getMinutes(CreatorType.SERVICE);
+			}
+			return delay.getMinutes(CreatorType.USER);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.model;
+
+import java.util.Arrays;
+
+/**
+ * Departures at a stop, as parallel arrays of times (minutes of day) and trip numbers ordered 
+ * by time once {@link #sort()} is called. Used by the departure indexes to find the departures 
+ * after a time with a binary search.
+ * 
+ * @author raman
+ *
+ */
+public class StopDepartures {
+	private int size;
+	private int[] minutes = new int[16];
+	private int[] trips = new int[16];
+
+	/**
+	 * @param minute departure time, minutes of day
+	 * @param trip number of the trip in the index
+	 */
+	public void add(int minute, int trip) {
+		if (size == minutes.length) {
+			minutes = Arrays.copyOf(minutes, size * 2);
+			trips = Arrays.copyOf(trips, size * 2);
+		}
+		minutes[size] = minute;
+		trips[size] = trip;
+		size++;
+	}
+
+	/**
+	 * Order the departures by time, then by trip number
+	 */
+	public void sort() {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) minutes[i] << 32) | trips[i];
+		}
+		Arrays.sort(keys);
+		minutes = new int[size];
+		trips = new int[size];
+		for (int i = 0; i < size; i++) {
+			minutes[i] = (int) (keys[i] >>> 32);
+			trips[i] = (int) keys[i];
+		}
+	}
+
+	/**
+	 * @return number of departures
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i position of the departure
+	 * @return departure time, minutes of day
+	 */
+	public int getMinutes(int i) {
+		return minutes[i];
+	}
+
+	/**
+	 * @param i position of the departure
+	 * @return trip number
+	 */
+	public int getTrip(int i) {
+		return trips[i];
+	}
+
+	/**
+	 * @return position of the first departure at or after the minute
+	 */
+	public int search(int minute) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (minutes[mid] < minute) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.model;
+
+/**
+ * Conversion of the timetable times ('HH:mm' strings) to minutes of day and back. 
+ * Shared by the timetable representations, stores and indexes, so that they all 
+ * accept the same times.
+ * 
+ * @author raman
+ *
+ */
+public class TimeUtils {
+
+	private TimeUtils() {
+	}
+
+	/**
+	 * @param time time in 'H:mm' or 'HH:mm' format, optionally followed by ':ss' (ignored)
+	 * @return minutes of day, -1 if the time is missing or invalid
+	 */
+	public static int parseMinutes(String time) {
+		if (time == null) return -1;
+		int colon = time.indexOf(':');
+		if (colon < 1 || colon > 2) return -1;
+		int length = time.length();
+		if (length != colon + 3 && (length != colon + 6 || time.charAt(colon + 3) != ':')) return -1;
+		int h = 0;
+		for (int i = 0; i < colon; i++) {
+			int d = digit(time.charAt(i));
+			if (d < 0) return -1;
+			h = h * 10 + d;
+		}
+		int m1 = digit(time.charAt(colon + 1)), m2 = digit(time.charAt(colon + 2));
+		if (m1 < 0 || m2 < 0 || m1 > 5) return -1;
+		if (length > colon + 3) {
+			int s1 = digit(time.charAt(colon + 4)), s2 = digit(time.charAt(colon + 5));
+			if (s1 < 0 || s2 < 0 || s1 > 5) return -1;
+		}
+		return h * 60 + m1 * 10 + m2;
+	}
+
+	/**
+	 * @param time
+	 * @return minutes of day of a canonical 'HH:mm' time, i.e., one restored exactly by 
+	 * {@link #formatMinutes(int)}; -1 if the time is missing or in a different format
+	 */
+	public static int toMinutes(String time) {
+		if (time == null || time.length() != 5) return -1;
+		return parseMinutes(time);
+	}
+
+	/**
+	 * @param minutes minutes of day (less than 100 hours)
+	 * @return the time in 'HH:mm' format
+	 */
+	public static String formatMinutes(int minutes) {
+		char[] c = new char[5];
+		int h = minutes / 60, m = minutes % 60;
+		c[0] = (char) ('0' + h / 10);
+		c[1] = (char) ('0' + h % 10);
+		c[2] = ':';
+		c[3] = (char) ('0' + m / 10);
+		c[4] = (char) ('0' + m % 10);
+		return new String(c);
+	}
+
+	private static int digit(char c) {
+		return c >= '0' && c <= '9' ? c - '0' : -1;
+	}
+}
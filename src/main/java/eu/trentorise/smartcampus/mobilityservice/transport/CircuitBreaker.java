@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+/**
+ * Circuit breaker of an endpoint family. After the configured number of consecutive 
+ * failures the circuit opens and the calls are rejected immediately. When the open 
+ * timeout expires a single probe call is let through (half-open state): the circuit 
+ * closes if it succeeds and opens again otherwise.
+ * 
+ * @author raman
+ *
+ */
+public class CircuitBreaker {
+
+	/**
+	 * Circuit breaker state
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String name;
+	private final int failureThreshold;
+	private final long openTimeout;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean probing;
+	private long rejectedCalls;
+	private long openCount;
+
+	/**
+	 * @param name endpoint family name
+	 * @param failureThreshold number of consecutive failures opening the circuit
+	 * @param openTimeout time (in millis) the circuit stays open before a probe call is allowed
+	 */
+	public CircuitBreaker(String name, int failureThreshold, long openTimeout) {
+		this.name = name;
+		this.failureThreshold = failureThreshold;
+		this.openTimeout = openTimeout;
+	}
+
+	/**
+	 * Check whether a call may be performed. In half-open state only one probe call is allowed.
+	 * @return false if the call should be rejected
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case OPEN:
+			if (System.currentTimeMillis() - openedAt >= openTimeout) {
+				state = State.HALF_OPEN;
+				probing = true;
+				return true;
+			}
+			rejectedCalls++;
+			return false;
+		case HALF_OPEN:
+			if (!probing) {
+				probing = true;
+				return true;
+			}
+			rejectedCalls++;
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * Record a successful call (the server is available)
+	 */
+	public synchronized void onSuccess() {
+		consecutiveFailures = 0;
+		probing = false;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Record a failed call (I/O error, server error or unexpected exception)
+	 */
+	public synchronized void onFailure() {
+		consecutiveFailures++;
+		probing = false;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+			openCount++;
+		}
+	}
+
+	/**
+	 * @return endpoint family name
+	 */
+	public String getName() {
+		return name;
+	}
+	/**
+	 * @return current state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+	/**
+	 * @return number of consecutive failures
+	 */
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+	/**
+	 * @return number of calls rejected while open
+	 */
+	public synchronized long getRejectedCalls() {
+		return rejectedCalls;
+	}
+	/**
+	 * @return number of times the circuit opened
+	 */
+	public synchronized long getOpenCount() {
+		return openCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return name + " [" + state + ", failures=" + consecutiveFailures + ", rejected=" + rejectedCalls + ", opened=" + openCount + "]";
+	}
+}
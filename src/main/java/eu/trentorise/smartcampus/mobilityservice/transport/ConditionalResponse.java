@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+/**
+ * Response of a conditional GET request: either the new content with its
+ * validators or the indication that the content was not modified.
+ * 
+ * @author raman
+ *
+ */
+public class ConditionalResponse {
+
+	private boolean notModified;
+	private String body;
+	private String etag;
+	private String lastModified;
+
+	public ConditionalResponse() {
+	}
+
+	public ConditionalResponse(boolean notModified, String body, String etag, String lastModified) {
+		super();
+		this.notModified = notModified;
+		this.body = body;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @return true if the server replied with 304 (Not Modified)
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+	public void setNotModified(boolean notModified) {
+		this.notModified = notModified;
+	}
+	/**
+	 * @return response body, null if not modified
+	 */
+	public String getBody() {
+		return body;
+	}
+	public void setBody(String body) {
+		this.body = body;
+	}
+	/**
+	 * @return value of the ETag header, if any
+	 */
+	public String getEtag() {
+		return etag;
+	}
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+	/**
+	 * @return value of the Last-Modified header, if any
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic counters of a single service endpoint (e.g., 'getroutes', 'gettransittimes'):
+ * number of responses, bytes received on the wire and bytes after decompression.
+ * 
+ * @author raman
+ *
+ */
+public class EndpointStats {
+
+	private final String endpoint;
+	private final AtomicLong responses = new AtomicLong();
+	private final AtomicLong compressedBytes = new AtomicLong();
+	private final AtomicLong uncompressedBytes = new AtomicLong();
+
+	/**
+	 * @param endpoint
+	 */
+	public EndpointStats(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	/**
+	 * @return endpoint name
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+	/**
+	 * @return number of responses read
+	 */
+	public long getResponses() {
+		return responses.get();
+	}
+	/**
+	 * @return bytes read from the network (possibly compressed)
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+	/**
+	 * @return bytes of the decoded response content
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes.get();
+	}
+
+	AtomicLong responses() {
+		return responses;
+	}
+	AtomicLong compressed() {
+		return compressedBytes;
+	}
+	AtomicLong uncompressed() {
+		return uncompressedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return endpoint + " [responses=" + responses + ", compressed=" + compressedBytes + ", uncompressed=" + uncompressedBytes + "]";
+	}
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Download of remote content to a file. The content is written directly to a file channel 
+ * as a '.part' file next to the target; interrupted transfers are resumed with HTTP Range 
+ * requests (validated with the ETag of the partial content), also across restarts.
+ * The complete content is verified (length and, for ZIP archives, entry checksums) 
+ * and then renamed to the target file, so that the target is never seen incomplete.
+ * 
+ * @author raman
+ *
+ */
+public class FileDownloader {
+
+	private static final long CHUNK = 1 << 20;
+	private static final String PART = ".part";
+	private static final String ETAG = ".etag";
+	private static final int RANGE_NOT_SATISFIABLE = 416;
+
+	private final MobilityTransport transport;
+	private final int maxAttempts;
+
+	/**
+	 * @param transport transport used to read the content
+	 * @param maxAttempts max number of requests for a single download
+	 */
+	public FileDownloader(MobilityTransport transport, int maxAttempts) {
+		this.transport = transport;
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	/**
+	 * Download the content to the target file, replacing it when complete.
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param token user or client access token
+	 * @param target file to write
+	 * @param zip true if the content is a ZIP archive to be verified
+	 * @return size of the downloaded content
+	 * @throws SecurityException
+	 * @throws RemoteException if the content cannot be read within the max number of attempts 
+	 * @throws IOException if the content cannot be written or verified
+	 */
+	public long download(String host, String service, String token, File target, boolean zip) throws SecurityException, RemoteException, IOException {
+		File part = new File(target.getPath() + PART);
+		File etagFile = new File(part.getPath() + ETAG);
+		String etag = part.exists() ? readEtag(etagFile) : null;
+
+		Exception error = null;
+		for (int attempt = 0; attempt < maxAttempts; attempt++) {
+			long offset = part.exists() ? part.length() : 0;
+			RangeResponse response;
+			try {
+				response = transport.getRange(host, service, token, offset, etag);
+			} catch (StatusException e) {
+				if (e.getStatus() == RANGE_NOT_SATISFIABLE) {
+					// the partial content does not match anymore
+					reset(part, etagFile);
+					etag = null;
+				}
+				error = e;
+				continue;
+			} catch (RemoteException e) {
+				error = e;
+				continue;
+			}
+
+			boolean resumed = response.isPartial() && response.getOffset() == offset;
+			if (!resumed && response.isPartial()) {
+				response.getStream().close();
+				reset(part, etagFile);
+				etag = null;
+				error = new IOException("Unexpected range from " + response.getOffset());
+				continue;
+			}
+			if (!resumed) {
+				reset(part, etagFile);
+			}
+			if (!resumed || response.getEtag() != null) {
+				etag = response.getEtag();
+				writeEtag(etagFile, etag);
+			}
+
+			long position = resumed ? offset : 0;
+			try {
+				position = transfer(response.getStream(), part, position);
+			} catch (IOException e) {
+				// keep the partial content for the next attempt
+				error = e;
+				continue;
+			}
+			long expected = response.getTotalLength();
+			if (expected >= 0 && position != expected) {
+				error = new IOException("Incomplete content: " + position + " of " + expected + " bytes");
+				continue;
+			}
+			if (zip) {
+				try {
+					verifyZip(part);
+				} catch (IOException e) {
+					reset(part, etagFile);
+					etag = null;
+					error = e;
+					continue;
+				}
+			}
+			replace(part, target);
+			etagFile.delete();
+			return position;
+		}
+		if (error instanceof RemoteException) {
+			throw (RemoteException) error;
+		}
+		throw (IOException) error;
+	}
+
+	private static long transfer(InputStream in, File file, long position) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		ReadableByteChannel source = Channels.newChannel(in);
+		try {
+			FileChannel channel = raf.getChannel();
+			channel.truncate(position);
+			long n;
+			while ((n = channel.transferFrom(source, position, CHUNK)) > 0) {
+				position += n;
+			}
+			channel.force(false);
+			return position;
+		} finally {
+			try {
+				source.close();
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * Read all the archive entries, checking their CRC
+	 * @param file
+	 * @throws IOException if the file is not a valid ZIP archive
+	 */
+	static void verifyZip(File file) throws IOException {
+		ZipInputStream zin = new ZipInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			byte[] buffer = new byte[8192];
+			int entries = 0;
+			while (zin.getNextEntry() != null) {
+				while (zin.read(buffer) != -1) {
+					// the entry checksum is verified at its end
+				}
+				zin.closeEntry();
+				entries++;
+			}
+			if (entries == 0) {
+				throw new ZipException("Empty or invalid archive");
+			}
+		} finally {
+			zin.close();
+		}
+	}
+
+	private static void replace(File source, File target) throws IOException {
+		if (!source.renameTo(target)) {
+			target.delete();
+			if (!source.renameTo(target)) {
+				throw new IOException("Cannot replace " + target);
+			}
+		}
+	}
+
+	private static void reset(File part, File etagFile) {
+		part.delete();
+		etagFile.delete();
+	}
+
+	private static String readEtag(File file) throws IOException {
+		if (!file.exists()) return null;
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int read = 0;
+			while (read < bytes.length) {
+				int n = in.read(bytes, read, bytes.length - read);
+				if (n < 0) break;
+				read += n;
+			}
+			return read == 0 ? null : new String(bytes, 0, read, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeEtag(File file, String etag) throws IOException {
+		if (etag == null) {
+			file.delete();
+			return;
+		}
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(etag.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Configuration of the {@link HedgingTransport}.
+ * 
+ * @author raman
+ *
+ */
+public class HedgingPolicy {
+
+	private Set<String> hedgedEndpoints = new HashSet<String>(Arrays.asList("plansinglejourney"));
+	private long delay = 0;
+	private double percentile = 0.95;
+	private long initialDelay = 1000;
+	private long minDelay = 20;
+	private int minSamples = 20;
+	private double maxHedgeRatio = 0.1;
+
+	/**
+	 * @return idempotent endpoints to hedge (by default the single journey planning)
+	 */
+	public Set<String> getHedgedEndpoints() {
+		return hedgedEndpoints;
+	}
+	public void setHedgedEndpoints(Set<String> hedgedEndpoints) {
+		this.hedgedEndpoints = hedgedEndpoints;
+	}
+	/**
+	 * @return fixed delay (in millis) after which the duplicate request is sent; 
+	 * if not positive the delay is the observed latency percentile
+	 */
+	public long getDelay() {
+		return delay;
+	}
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+	/**
+	 * @return latency percentile (0..1) used as adaptive delay
+	 */
+	public double getPercentile() {
+		return percentile;
+	}
+	public void setPercentile(double percentile) {
+		this.percentile = percentile;
+	}
+	/**
+	 * @return adaptive delay (in millis) used until enough latency samples are collected
+	 */
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+	public void setInitialDelay(long initialDelay) {
+		this.initialDelay = initialDelay;
+	}
+	/**
+	 * @return lower bound (in millis) of the adaptive delay
+	 */
+	public long getMinDelay() {
+		return minDelay;
+	}
+	public void setMinDelay(long minDelay) {
+		this.minDelay = minDelay;
+	}
+	/**
+	 * @return number of latency samples needed before using the adaptive delay
+	 */
+	public int getMinSamples() {
+		return minSamples;
+	}
+	public void setMinSamples(int minSamples) {
+		this.minSamples = minSamples;
+	}
+	/**
+	 * @return hedge budget: max ratio of duplicate requests over the hedged calls
+	 */
+	public double getMaxHedgeRatio() {
+		return maxHedgeRatio;
+	}
+	public void setMaxHedgeRatio(double maxHedgeRatio) {
+		this.maxHedgeRatio = maxHedgeRatio;
+	}
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Transport decorator hedging the latency-critical idempotent calls (by default 
+ * the single journey planning): if the response does not arrive within the hedging 
+ * delay, a duplicate request is sent and the first response is used. The delay is either 
+ * fixed or the observed latency percentile (e.g., p95), and the number of duplicate 
+ * requests is capped by the hedge budget, so that the extra load on the server stays bounded.
+ * <p>
+ * Both the attempts run on the provided executor, the calling thread waits for the first result.
+ * 
+ * @author raman
+ *
+ */
+public class HedgingTransport implements MobilityTransport {
+
+	private final MobilityTransport delegate;
+	private final HedgingPolicy policy;
+	private final Executor executor;
+	private final LatencyTracker latencies = new LatencyTracker(200);
+
+	private final AtomicLong hedgedCalls = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	/**
+	 * @param delegate transport performing the calls
+	 * @param policy hedging configuration
+	 * @param executor executor running the attempts
+	 */
+	public HedgingTransport(MobilityTransport delegate, HedgingPolicy policy, Executor executor) {
+		this.delegate = delegate;
+		this.policy = policy;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return current hedging delay in millis
+	 */
+	public long getDelay() {
+		if (policy.getDelay() > 0) {
+			return policy.getDelay();
+		}
+		if (latencies.getCount() < policy.getMinSamples()) {
+			return policy.getInitialDelay();
+		}
+		return Math.max(policy.getMinDelay(), latencies.getPercentile(policy.getPercentile()));
+	}
+
+	/**
+	 * @return number of calls subject to hedging
+	 */
+	public long getHedgedCalls() {
+		return hedgedCalls.get();
+	}
+
+	/**
+	 * @return number of duplicate requests sent
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * @return number of calls where the duplicate request answered first
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+
+	@Override
+	public String getJSON(final String host, final String service, final String token) throws SecurityException, RemoteException {
+		if (!isHedged(service)) {
+			return delegate.getJSON(host, service, token);
+		}
+		return hedge(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return delegate.getJSON(host, service, token);
+			}
+		});
+	}
+
+	@Override
+	public String getJSON(final String host, final String service, final String token, final Map<String, Object> parameters) throws SecurityException, RemoteException {
+		if (!isHedged(service)) {
+			return delegate.getJSON(host, service, token, parameters);
+		}
+		return hedge(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return delegate.getJSON(host, service, token, parameters);
+			}
+		});
+	}
+
+	@Override
+	public ConditionalResponse getConditional(String host, String service, String token, String etag, String lastModified) throws SecurityException, RemoteException {
+		return delegate.getConditional(host, service, token, etag, lastModified);
+	}
+
+	@Override
+	public String postJSON(final String host, final String service, final String body, final String token) throws SecurityException, RemoteException {
+		if (!isHedged(service)) {
+			return delegate.postJSON(host, service, body, token);
+		}
+		return hedge(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return delegate.postJSON(host, service, body, token);
+			}
+		});
+	}
+
+	@Override
+	public String putJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+		return delegate.putJSON(host, service, body, token);
+	}
+
+	@Override
+	public String deleteJSON(String host, String service, String token) throws SecurityException, RemoteException {
+		return delegate.deleteJSON(host, service, token);
+	}
+
+	@Override
+	public InputStream getStream(String host, String service, String token) throws SecurityException, RemoteException {
+		return delegate.getStream(host, service, token);
+	}
+
+	@Override
+	public RangeResponse getRange(String host, String service, String token, long offset, String ifRange) throws SecurityException, RemoteException {
+		return delegate.getRange(host, service, token, offset, ifRange);
+	}
+
+	private boolean isHedged(String service) {
+		return policy.getHedgedEndpoints() != null && policy.getHedgedEndpoints().contains(PooledHttpTransport.toEndpoint(service));
+	}
+
+	private String hedge(Callable<String> call) throws SecurityException, RemoteException {
+		hedgedCalls.incrementAndGet();
+		CompletionService<String> completion = new ExecutorCompletionService<String>(executor);
+		List<Future<String>> attempts = new ArrayList<Future<String>>(2);
+		attempts.add(completion.submit(timed(call)));
+		Throwable error = null;
+		try {
+			Future<String> done = completion.poll(getDelay(), TimeUnit.MILLISECONDS);
+			if (done == null && tryHedge()) {
+				try {
+					attempts.add(completion.submit(timed(call)));
+				} catch (RejectedExecutionException e) {
+					// executor saturated: give the budget back and keep waiting for the first attempt
+					hedges.decrementAndGet();
+				}
+			}
+			for (int pending = attempts.size(); pending > 0; pending--) {
+				if (done == null) {
+					done = completion.take();
+				}
+				try {
+					String result = done.get();
+					if (attempts.size() > 1 && done == attempts.get(1)) {
+						hedgeWins.incrementAndGet();
+					}
+					return result;
+				} catch (ExecutionException e) {
+					// wait for the other attempt, if any
+					error = e.getCause();
+				}
+				done = null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException(e);
+		} finally {
+			for (Future<String> f : attempts) {
+				f.cancel(true);
+			}
+		}
+		if (error instanceof SecurityException) throw (SecurityException) error;
+		if (error instanceof RemoteException) throw (RemoteException) error;
+		throw new RemoteException(error);
+	}
+
+	private boolean tryHedge() {
+		while (true) {
+			long current = hedges.get();
+			if (current >= policy.getMaxHedgeRatio() * hedgedCalls.get() + 1) {
+				return false;
+			}
+			if (hedges.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private Callable<String> timed(final Callable<String> call) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				long start = System.currentTimeMillis();
+				String result = call.call();
+				latencies.record(System.currentTimeMillis() - start);
+				return result;
+			}
+		};
+	}
+}
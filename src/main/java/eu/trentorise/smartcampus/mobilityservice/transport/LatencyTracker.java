@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples and computes their percentiles.
+ * 
+ * @author raman
+ *
+ */
+public class LatencyTracker {
+
+	private final long[] samples;
+	private int count;
+	private int next;
+
+	/**
+	 * @param size number of recent samples kept
+	 */
+	public LatencyTracker(int size) {
+		samples = new long[size];
+	}
+
+	/**
+	 * @param latency
+	 */
+	public synchronized void record(long latency) {
+		samples[next] = latency;
+		next = (next + 1) % samples.length;
+		if (count < samples.length) count++;
+	}
+
+	/**
+	 * @return number of samples kept
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * @param percentile value between 0 and 1
+	 * @return the latency percentile of the recent samples, -1 if no samples
+	 */
+	public long getPercentile(double percentile) {
+		long[] copy;
+		synchronized (this) {
+			if (count == 0) return -1;
+			copy = Arrays.copyOf(samples, count);
+		}
+		Arrays.sort(copy);
+		int idx = (int) Math.ceil(percentile * copy.length) - 1;
+		return copy[Math.max(0, Math.min(copy.length - 1, idx))];
+	}
+}
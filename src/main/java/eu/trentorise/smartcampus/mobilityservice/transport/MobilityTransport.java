@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Transport used by the mobility service clients to perform the remote calls. 
+ * The same instance may be shared by all the services (data, planner, user, alert).
+ * Signatures follow those of {@link eu.trentorise.smartcampus.network.RemoteConnector}:
+ * a {@link SecurityException} is thrown if the token is not accepted by the server.
+ * 
+ * @author raman
+ *
+ */
+public interface MobilityTransport {
+
+	/**
+	 * Perform GET request
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param token user or client access token
+	 * @return response body
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	String getJSON(String host, String service, String token) throws SecurityException, RemoteException;
+
+	/**
+	 * Perform GET request with the specified query parameters
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param token user or client access token
+	 * @param parameters query parameters
+	 * @return response body
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	String getJSON(String host, String service, String token, Map<String, Object> parameters) throws SecurityException, RemoteException;
+
+	/**
+	 * Perform conditional GET request, sending the validators obtained from a previous response.
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param token user or client access token
+	 * @param etag value for the If-None-Match header, may be null
+	 * @param lastModified value for the If-Modified-Since header, may be null
+	 * @return new content or not modified indication
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	ConditionalResponse getConditional(String host, String service, String token, String etag, String lastModified) throws SecurityException, RemoteException;
+
+	/**
+	 * Perform POST request with JSON body
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param body JSON body
+	 * @param token user or client access token
+	 * @return response body
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	String postJSON(String host, String service, String body, String token) throws SecurityException, RemoteException;
+
+	/**
+	 * Perform PUT request with JSON body
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param body JSON body
+	 * @param token user or client access token
+	 * @return response body
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	String putJSON(String host, String service, String body, String token) throws SecurityException, RemoteException;
+
+	/**
+	 * Perform DELETE request
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param token user or client access token
+	 * @return response body
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	String deleteJSON(String host, String service, String token) throws SecurityException, RemoteException;
+
+	/**
+	 * Perform GET request and return the raw response stream. The caller is 
+	 * responsible for closing the stream, which releases the underlying connection.
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param token user or client access token
+	 * @return response stream
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	InputStream getStream(String host, String service, String token) throws SecurityException, RemoteException;
+
+	/**
+	 * Perform GET request for the content starting at the specified byte offset (HTTP Range request), 
+	 * without content encoding. The caller is responsible for closing the response stream.
+	 * @param host service address (ending with '/')
+	 * @param service relative service path
+	 * @param token user or client access token
+	 * @param offset first byte to read
+	 * @param ifRange ETag of the content already read (If-Range header): if the content has changed 
+	 * the whole new content is returned. May be null.
+	 * @return response stream with the range information
+	 * @throws SecurityException
+	 * @throws RemoteException
+	 */
+	RangeResponse getRange(String host, String service, String token, long offset, String ifRange) throws SecurityException, RemoteException;
+
+}
@@ -0,0 +1,506 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.util.EntityUtils;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Transport backed by a bounded pool of keep-alive HTTP connections. Connections 
+ * are reused across calls and across the services sharing the same instance, 
+ * idle connections are periodically evicted. Create a single instance and pass it
+ * to all the service clients; call {@link #shutdown()} when no longer needed.
+ * <p>
+ * Unless disabled in {@link TransportConfig}, gzip/deflate compressed responses are 
+ * requested and transparently decompressed while reading. The traffic of each endpoint 
+ * is available through {@link #getEndpointStats()}.
+ * 
+ * @author raman
+ *
+ */
+public class PooledHttpTransport implements MobilityTransport {
+
+	private static final String BEARER = "Bearer ";
+	private static final String AUTHORIZATION = "Authorization";
+	private static final String ACCEPT = "Accept";
+	private static final String ACCEPT_ENCODING = "Accept-Encoding";
+	private static final String GZIP_DEFLATE = "gzip, deflate";
+	private static final String IDENTITY = "identity";
+	private static final String IF_NONE_MATCH = "If-None-Match";
+	private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+	private static final String ETAG = "ETag";
+	private static final String LAST_MODIFIED = "Last-Modified";
+	private static final String RANGE = "Range";
+	private static final String IF_RANGE = "If-Range";
+	private static final String CONTENT_RANGE = "Content-Range";
+	private static final String APPLICATION_JSON = "application/json";
+	private static final String UTF8 = "UTF-8";
+
+	private final TransportConfig config;
+	private final ThreadSafeClientConnManager connectionManager;
+	private final DefaultHttpClient client;
+	private ScheduledExecutorService evictor;
+
+	private final AtomicInteger activeRequests = new AtomicInteger();
+	private final AtomicLong totalRequests = new AtomicLong();
+	private final AtomicLong failedRequests = new AtomicLong();
+	private final AtomicLong evictionRuns = new AtomicLong();
+	private final ConcurrentMap<String, EndpointStats> endpointStats = new ConcurrentHashMap<String, EndpointStats>();
+
+	/**
+	 * Create transport with default configuration
+	 */
+	public PooledHttpTransport() {
+		this(new TransportConfig());
+	}
+
+	/**
+	 * @param config pool and connection configuration
+	 */
+	public PooledHttpTransport(TransportConfig config) {
+		this.config = config;
+
+		HttpParams params = new BasicHttpParams();
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(params, UTF8);
+		HttpConnectionParams.setConnectionTimeout(params, config.getConnectTimeout());
+		HttpConnectionParams.setSoTimeout(params, config.getSocketTimeout());
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		ConnManagerParams.setMaxTotalConnections(params, config.getMaxTotalConnections());
+		ConnManagerParams.setTimeout(params, config.getConnectionRequestTimeout());
+		ConnManagerParams.setMaxConnectionsPerRoute(params, createConnPerRoute(config));
+
+		connectionManager = new ThreadSafeClientConnManager(params, createSchemeRegistry());
+		client = new DefaultHttpClient(connectionManager, params);
+
+		if (config.getEvictionInterval() > 0) {
+			evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "mobility-transport-evictor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			evictor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdleConnections();
+				}
+			}, config.getEvictionInterval(), config.getEvictionInterval(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Create the registry of supported schemes. Override to customize SSL socket factory.
+	 * @return
+	 */
+	protected SchemeRegistry createSchemeRegistry() {
+		SchemeRegistry registry = new SchemeRegistry();
+		registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		return registry;
+	}
+
+	private static ConnPerRouteBean createConnPerRoute(TransportConfig config) {
+		ConnPerRouteBean perRoute = new ConnPerRouteBean(config.getMaxConnectionsPerRoute());
+		if (config.getMaxConnectionsPerHost() != null) {
+			for (String host : config.getMaxConnectionsPerHost().keySet()) {
+				try {
+					URL url = new URL(host);
+					int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+					HttpHost target = new HttpHost(url.getHost(), port, url.getProtocol());
+					perRoute.setMaxForRoute(new HttpRoute(target, null, "https".equals(url.getProtocol())),
+							config.getMaxConnectionsPerHost().get(host));
+				} catch (Exception e) {
+					throw new IllegalArgumentException("Invalid host specification: " + host, e);
+				}
+			}
+		}
+		return perRoute;
+	}
+
+	/**
+	 * Close expired connections and those idle for longer than the configured timeout.
+	 */
+	public void evictIdleConnections() {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(config.getIdleTimeout(), TimeUnit.MILLISECONDS);
+		evictionRuns.incrementAndGet();
+	}
+
+	/**
+	 * @return current pool statistics
+	 */
+	public TransportStats getStats() {
+		TransportStats stats = new TransportStats();
+		stats.setMaxTotalConnections(config.getMaxTotalConnections());
+		stats.setMaxConnectionsPerRoute(config.getMaxConnectionsPerRoute());
+		stats.setPooledConnections(connectionManager.getConnectionsInPool());
+		stats.setActiveRequests(activeRequests.get());
+		stats.setTotalRequests(totalRequests.get());
+		stats.setFailedRequests(failedRequests.get());
+		stats.setEvictionRuns(evictionRuns.get());
+		return stats;
+	}
+
+	/**
+	 * @return traffic counters of each endpoint called so far
+	 */
+	public Map<String, EndpointStats> getEndpointStats() {
+		return new HashMap<String, EndpointStats>(endpointStats);
+	}
+
+	/**
+	 * Stop the eviction task and close all the pooled connections
+	 */
+	public void shutdown() {
+		if (evictor != null) {
+			evictor.shutdownNow();
+		}
+		connectionManager.shutdown();
+	}
+
+	@Override
+	public String getJSON(String host, String service, String token) throws SecurityException, RemoteException {
+		return getJSON(host, service, token, null);
+	}
+
+	@Override
+	public String getJSON(String host, String service, String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return execute(new HttpGet(host + service + toQueryString(parameters)), service, token);
+	}
+
+	@Override
+	public ConditionalResponse getConditional(String host, String service, String token, String etag, String lastModified) throws SecurityException, RemoteException {
+		HttpGet req = new HttpGet(host + service);
+		if (etag != null) req.setHeader(IF_NONE_MATCH, etag);
+		if (lastModified != null) req.setHeader(IF_MODIFIED_SINCE, lastModified);
+		HttpResponse resp = send(req, token);
+		try {
+			if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+				if (resp.getEntity() != null) {
+					resp.getEntity().consumeContent();
+				}
+				return new ConditionalResponse(true, null, etag, lastModified);
+			}
+			checkStatus(resp);
+			HttpEntity entity = resp.getEntity();
+			String body = entity == null ? null : readString(entity, service);
+			return new ConditionalResponse(false, body, headerValue(resp, ETAG), headerValue(resp, LAST_MODIFIED));
+		} catch (IOException e) {
+			req.abort();
+			failedRequests.incrementAndGet();
+			throw new RemoteException(e);
+		} finally {
+			activeRequests.decrementAndGet();
+		}
+	}
+
+	private static String headerValue(HttpResponse resp, String name) {
+		Header header = resp.getFirstHeader(name);
+		return header == null ? null : header.getValue();
+	}
+
+	@Override
+	public String postJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+		return execute(withBody(new HttpPost(host + service), body), service, token);
+	}
+
+	@Override
+	public String putJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+		return execute(withBody(new HttpPut(host + service), body), service, token);
+	}
+
+	@Override
+	public String deleteJSON(String host, String service, String token) throws SecurityException, RemoteException {
+		return execute(new HttpDelete(host + service), service, token);
+	}
+
+	@Override
+	public InputStream getStream(String host, String service, String token) throws SecurityException, RemoteException {
+		HttpGet req = new HttpGet(host + service);
+		HttpResponse resp = send(req, token);
+		boolean streaming = false;
+		try {
+			checkStatus(resp);
+			// closing the content stream releases the connection back to the pool
+			InputStream in = new ActiveInputStream(decode(resp.getEntity(), service));
+			streaming = true;
+			return in;
+		} catch (IOException e) {
+			req.abort();
+			failedRequests.incrementAndGet();
+			throw new RemoteException(e);
+		} finally {
+			if (!streaming) activeRequests.decrementAndGet();
+		}
+	}
+
+	@Override
+	public RangeResponse getRange(String host, String service, String token, long offset, String ifRange) throws SecurityException, RemoteException {
+		HttpGet req = new HttpGet(host + service);
+		// byte ranges refer to the unencoded content
+		req.setHeader(ACCEPT_ENCODING, IDENTITY);
+		if (offset > 0) {
+			req.setHeader(RANGE, "bytes=" + offset + "-");
+			if (ifRange != null) req.setHeader(IF_RANGE, ifRange);
+		}
+		HttpResponse resp = send(req, token);
+		boolean streaming = false;
+		try {
+			checkStatus(resp);
+			HttpEntity entity = resp.getEntity();
+			boolean partial = resp.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+			RangeResponse response = new RangeResponse(new ActiveInputStream(decode(entity, service)), partial, 0, entity.getContentLength(), headerValue(resp, ETAG));
+			streaming = true;
+			if (partial) {
+				RangeResponse.parseContentRange(response, headerValue(resp, CONTENT_RANGE));
+			}
+			return response;
+		} catch (IOException e) {
+			req.abort();
+			failedRequests.incrementAndGet();
+			throw new RemoteException(e);
+		} finally {
+			if (!streaming) activeRequests.decrementAndGet();
+		}
+	}
+
+	private String execute(HttpRequestBase req, String service, String token) throws SecurityException, RemoteException {
+		HttpResponse resp = send(req, token);
+		try {
+			checkStatus(resp);
+			HttpEntity entity = resp.getEntity();
+			return entity == null ? null : readString(entity, service);
+		} catch (IOException e) {
+			req.abort();
+			failedRequests.incrementAndGet();
+			throw new RemoteException(e);
+		} finally {
+			activeRequests.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Send the request. The request is active until the caller has read the response content:
+	 * the caller must decrement the active requests when done, or leave it to {@link ActiveInputStream}.
+	 */
+	private HttpResponse send(HttpRequestBase req, String token) throws RemoteException {
+		req.setHeader(ACCEPT, APPLICATION_JSON);
+		req.setHeader(AUTHORIZATION, BEARER + token);
+		if (config.isCompression() && !req.containsHeader(ACCEPT_ENCODING)) {
+			req.setHeader(ACCEPT_ENCODING, GZIP_DEFLATE);
+		}
+		totalRequests.incrementAndGet();
+		activeRequests.incrementAndGet();
+		boolean sent = false;
+		try {
+			HttpResponse resp = client.execute(req);
+			sent = true;
+			return resp;
+		} catch (IOException e) {
+			req.abort();
+			failedRequests.incrementAndGet();
+			throw new RemoteException(e);
+		} finally {
+			if (!sent) activeRequests.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Wrap the entity content decompressing it according to its encoding and
+	 * counting the bytes before and after decompression.
+	 */
+	private InputStream decode(HttpEntity entity, String service) throws IOException {
+		EndpointStats stats = getEndpointStats(service);
+		stats.responses().incrementAndGet();
+		InputStream in = new CountingInputStream(entity.getContent(), stats.compressed());
+		Header encoding = entity.getContentEncoding();
+		if (encoding != null && encoding.getValue() != null) {
+			String value = encoding.getValue().toLowerCase();
+			if (value.contains("gzip")) {
+				in = new GZIPInputStream(in);
+			} else if (value.contains("deflate")) {
+				in = new InflaterInputStream(in);
+			}
+		}
+		return new CountingInputStream(in, stats.uncompressed());
+	}
+
+	private String readString(HttpEntity entity, String service) throws IOException {
+		String charset = EntityUtils.getContentCharSet(entity);
+		Reader reader = new InputStreamReader(decode(entity, service), charset == null ? UTF8 : charset);
+		try {
+			StringBuilder sb = new StringBuilder(entity.getContentLength() > 0 ? (int) entity.getContentLength() : 4096);
+			char[] buffer = new char[4096];
+			int n;
+			while ((n = reader.read(buffer)) != -1) {
+				sb.append(buffer, 0, n);
+			}
+			return sb.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private EndpointStats getEndpointStats(String service) {
+		String endpoint = toEndpoint(service);
+		EndpointStats stats = endpointStats.get(endpoint);
+		if (stats == null) {
+			EndpointStats created = new EndpointStats(endpoint);
+			stats = endpointStats.putIfAbsent(endpoint, created);
+			if (stats == null) stats = created;
+		}
+		return stats;
+	}
+
+	/**
+	 * @param service relative service path
+	 * @return endpoint name, i.e., the first segment of the path
+	 */
+	static String toEndpoint(String service) {
+		int end = service.length();
+		for (int i = 0; i < service.length(); i++) {
+			char c = service.charAt(i);
+			if (c == '/' || c == '?') {
+				end = i;
+				break;
+			}
+		}
+		return service.substring(0, end);
+	}
+
+	private void checkStatus(HttpResponse resp) throws SecurityException, RemoteException, IOException {
+		int status = resp.getStatusLine().getStatusCode();
+		if (status >= 200 && status < 300) {
+			return;
+		}
+		// consume the content so that the connection can be reused
+		if (resp.getEntity() != null) {
+			resp.getEntity().consumeContent();
+		}
+		failedRequests.incrementAndGet();
+		if (status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_FORBIDDEN) {
+			throw new SecurityException();
+		}
+		throw new StatusException(status);
+	}
+
+	private static HttpRequestBase withBody(HttpEntityEnclosingRequestBase req, String body) throws RemoteException {
+		try {
+			StringEntity entity = new StringEntity(body, UTF8);
+			entity.setContentType(APPLICATION_JSON);
+			req.setEntity(entity);
+			return req;
+		} catch (Exception e) {
+			throw new RemoteException(e);
+		}
+	}
+
+	/**
+	 * @param parameters request parameters, null values are skipped
+	 * @return URL encoded query string (with leading '?'), empty if there are no parameters
+	 */
+	static String toQueryString(Map<String, Object> parameters) throws RemoteException {
+		if (parameters == null || parameters.isEmpty()) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder("?");
+		try {
+			for (String key : parameters.keySet()) {
+				Object value = parameters.get(key);
+				if (value == null) continue;
+				if (sb.length() > 1) sb.append('&');
+				sb.append(URLEncoder.encode(key, UTF8)).append('=').append(URLEncoder.encode(value.toString(), UTF8));
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new RemoteException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Response content stream: the request stays active until the stream is closed
+	 */
+	private class ActiveInputStream extends FilterInputStream {
+		private boolean closed;
+
+		ActiveInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (!closed) {
+					closed = true;
+					activeRequests.decrementAndGet();
+				}
+			}
+		}
+	}
+}
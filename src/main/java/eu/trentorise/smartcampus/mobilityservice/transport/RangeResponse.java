@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.io.InputStream;
+
+/**
+ * Response of a GET request for a byte range of the content: either the requested 
+ * range ('206 Partial Content') or the whole content if the server does not support 
+ * ranges or the content has changed.
+ * 
+ * @author raman
+ *
+ */
+public class RangeResponse {
+
+	private InputStream stream;
+	private boolean partial;
+	private long offset;
+	private long totalLength = -1;
+	private String etag;
+
+	public RangeResponse() {
+	}
+
+	public RangeResponse(InputStream stream, boolean partial, long offset, long totalLength, String etag) {
+		super();
+		this.stream = stream;
+		this.partial = partial;
+		this.offset = offset;
+		this.totalLength = totalLength;
+		this.etag = etag;
+	}
+
+	/**
+	 * Fill the response range information from the Content-Range header value ('bytes first-last/total')
+	 * @param response
+	 * @param contentRange
+	 */
+	static void parseContentRange(RangeResponse response, String contentRange) {
+		if (contentRange == null) return;
+		int space = contentRange.indexOf(' ');
+		int dash = contentRange.indexOf('-', space + 1);
+		int slash = contentRange.indexOf('/', dash + 1);
+		if (space < 0 || dash < 0 || slash < 0) return;
+		try {
+			response.setOffset(Long.parseLong(contentRange.substring(space + 1, dash).trim()));
+			String total = contentRange.substring(slash + 1).trim();
+			if (!"*".equals(total)) {
+				response.setTotalLength(Long.parseLong(total));
+			}
+		} catch (NumberFormatException e) {
+			// leave the range unknown
+		}
+	}
+
+	/**
+	 * @return response stream, to be closed by the caller
+	 */
+	public InputStream getStream() {
+		return stream;
+	}
+	public void setStream(InputStream stream) {
+		this.stream = stream;
+	}
+	/**
+	 * @return true if the server replied with 206 (Partial Content)
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+	public void setPartial(boolean partial) {
+		this.partial = partial;
+	}
+	/**
+	 * @return position of the first byte of the stream within the content
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	public void setOffset(long offset) {
+		this.offset = offset;
+	}
+	/**
+	 * @return length of the whole content, -1 if unknown
+	 */
+	public long getTotalLength() {
+		return totalLength;
+	}
+	public void setTotalLength(long totalLength) {
+		this.totalLength = totalLength;
+	}
+	/**
+	 * @return value of the ETag header, if any
+	 */
+	public String getEtag() {
+		return etag;
+	}
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+import eu.trentorise.smartcampus.network.RemoteConnector;
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Default transport performing the same requests as the static {@link RemoteConnector} methods 
+ * with plain {@link HttpURLConnection}, so that error responses are reported as 
+ * {@link StatusException} with the HTTP status code.
+ * 
+ * @author raman
+ *
+ */
+public class RemoteConnectorTransport implements MobilityTransport {
+
+	private static final String BEARER = "Bearer ";
+	private static final String AUTHORIZATION = "Authorization";
+	private static final String ACCEPT = "Accept";
+	private static final String APPLICATION_JSON = "application/json";
+	private static final String IF_NONE_MATCH = "If-None-Match";
+	private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+	private static final String ETAG = "ETag";
+	private static final String LAST_MODIFIED = "Last-Modified";
+	private static final String RANGE = "Range";
+	private static final String IF_RANGE = "If-Range";
+	private static final String CONTENT_RANGE = "Content-Range";
+	private static final String CONTENT_TYPE = "Content-Type";
+	private static final String UTF8 = "UTF-8";
+
+	@Override
+	public String getJSON(String host, String service, String token) throws SecurityException, RemoteException {
+		return request("GET", host, service, null, token);
+	}
+
+	@Override
+	public String getJSON(String host, String service, String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return request("GET", host, service + PooledHttpTransport.toQueryString(parameters), null, token);
+	}
+
+	/**
+	 * Conditional request is performed with plain {@link HttpURLConnection}, as 
+	 * {@link RemoteConnector} does not expose request and response headers.
+	 */
+	@Override
+	public ConditionalResponse getConditional(String host, String service, String token, String etag, String lastModified) throws SecurityException, RemoteException {
+		try {
+			URL url = new URL(host + service);
+
+			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+			conn.setRequestMethod("GET");
+			conn.setRequestProperty(ACCEPT, APPLICATION_JSON);
+			conn.setRequestProperty(AUTHORIZATION, BEARER + token);
+			if (etag != null) conn.setRequestProperty(IF_NONE_MATCH, etag);
+			if (lastModified != null) conn.setRequestProperty(IF_MODIFIED_SINCE, lastModified);
+			conn.setDoInput(true);
+
+			int status = conn.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				return new ConditionalResponse(true, null, etag, lastModified);
+			}
+			checkStatus(status);
+			return new ConditionalResponse(false, readString(conn.getInputStream()), conn.getHeaderField(ETAG), conn.getHeaderField(LAST_MODIFIED));
+		} catch (SecurityException e) {
+			throw e;
+		} catch (RemoteException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RemoteException(e);
+		}
+	}
+
+	@Override
+	public String postJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+		return request("POST", host, service, body, token);
+	}
+
+	@Override
+	public String putJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+		return request("PUT", host, service, body, token);
+	}
+
+	@Override
+	public String deleteJSON(String host, String service, String token) throws SecurityException, RemoteException {
+		return request("DELETE", host, service, null, token);
+	}
+
+	@Override
+	public InputStream getStream(String host, String service, String token) throws SecurityException, RemoteException {
+		try {
+			URL url = new URL(host + service);
+
+			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+			conn.setRequestMethod("GET");
+			conn.setRequestProperty(AUTHORIZATION, BEARER + token);
+			conn.setDoInput(true);
+
+			int status = conn.getResponseCode();
+			checkStatus(status);
+			return conn.getInputStream();
+		} catch (SecurityException e) {
+			throw e;
+		} catch (RemoteException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RemoteException(e);
+		}
+	}
+
+	@Override
+	public RangeResponse getRange(String host, String service, String token, long offset, String ifRange) throws SecurityException, RemoteException {
+		try {
+			URL url = new URL(host + service);
+
+			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+			conn.setRequestMethod("GET");
+			conn.setRequestProperty(AUTHORIZATION, BEARER + token);
+			if (offset > 0) {
+				conn.setRequestProperty(RANGE, "bytes=" + offset + "-");
+				if (ifRange != null) conn.setRequestProperty(IF_RANGE, ifRange);
+			}
+			conn.setDoInput(true);
+
+			int status = conn.getResponseCode();
+			checkStatus(status);
+			RangeResponse response = new RangeResponse(conn.getInputStream(), status == HttpURLConnection.HTTP_PARTIAL, 0, conn.getContentLength(), conn.getHeaderField(ETAG));
+			if (response.isPartial()) {
+				RangeResponse.parseContentRange(response, conn.getHeaderField(CONTENT_RANGE));
+			}
+			return response;
+		} catch (SecurityException e) {
+			throw e;
+		} catch (RemoteException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RemoteException(e);
+		}
+	}
+
+	private static String request(String method, String host, String service, String body, String token) throws SecurityException, RemoteException {
+		try {
+			URL url = new URL(host + service);
+
+			HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+			conn.setRequestMethod(method);
+			conn.setRequestProperty(ACCEPT, APPLICATION_JSON);
+			conn.setRequestProperty(AUTHORIZATION, BEARER + token);
+			conn.setDoInput(true);
+			if (body != null) {
+				conn.setDoOutput(true);
+				conn.setRequestProperty(CONTENT_TYPE, APPLICATION_JSON + "; charset=" + UTF8);
+				OutputStream out = conn.getOutputStream();
+				try {
+					out.write(body.getBytes(UTF8));
+				} finally {
+					out.close();
+				}
+			}
+
+			checkStatus(conn.getResponseCode());
+			return readString(conn.getInputStream());
+		} catch (SecurityException e) {
+			throw e;
+		} catch (RemoteException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RemoteException(e);
+		}
+	}
+
+	/**
+	 * Map authorization errors to {@link SecurityException} and other non-2xx responses to {@link StatusException}
+	 */
+	private static void checkStatus(int status) throws SecurityException, StatusException {
+		if (status == HttpURLConnection.HTTP_UNAUTHORIZED || status == HttpURLConnection.HTTP_FORBIDDEN) {
+			throw new SecurityException();
+		}
+		if (status < 200 || status >= 300) {
+			throw new StatusException(status);
+		}
+	}
+
+	private static String readString(InputStream in) throws IOException {
+		Reader reader = new InputStreamReader(in, UTF8);
+		try {
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[4096];
+			int n;
+			while ((n = reader.read(buffer)) != -1) {
+				sb.append(buffer, 0, n);
+			}
+			return sb.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Configuration of the {@link ResilientTransport}: retries, backoff, circuit breaker 
+ * thresholds and failover hosts.
+ * 
+ * @author raman
+ *
+ */
+public class ResiliencePolicy {
+
+	private int maxRetries = 2;
+	private long baseDelay = 100;
+	private long maxDelay = 2000;
+	private int failureThreshold = 5;
+	private long openTimeout = 30000;
+	private Set<String> idempotentPostEndpoints = new HashSet<String>(Arrays.asList("plansinglejourney", "planrecurrent"));
+	private List<String> failoverHosts = new ArrayList<String>();
+
+	/**
+	 * @return max number of retries of a failed idempotent call
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+	/**
+	 * @return base delay (in millis) of the exponential backoff
+	 */
+	public long getBaseDelay() {
+		return baseDelay;
+	}
+	public void setBaseDelay(long baseDelay) {
+		this.baseDelay = baseDelay;
+	}
+	/**
+	 * @return max delay (in millis) between retries
+	 */
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+	/**
+	 * @return number of consecutive failures opening the circuit of an endpoint family
+	 */
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+	public void setFailureThreshold(int failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+	/**
+	 * @return time (in millis) an open circuit rejects calls before allowing a probe
+	 */
+	public long getOpenTimeout() {
+		return openTimeout;
+	}
+	public void setOpenTimeout(long openTimeout) {
+		this.openTimeout = openTimeout;
+	}
+	/**
+	 * @return POST endpoints without side effects, which may be retried (by default the planner endpoints)
+	 */
+	public Set<String> getIdempotentPostEndpoints() {
+		return idempotentPostEndpoints;
+	}
+	public void setIdempotentPostEndpoints(Set<String> idempotentPostEndpoints) {
+		this.idempotentPostEndpoints = idempotentPostEndpoints;
+	}
+	/**
+	 * @return alternative service addresses (ending with '/') used in turn for the retries
+	 */
+	public List<String> getFailoverHosts() {
+		return failoverHosts;
+	}
+	public void setFailoverHosts(List<String> failoverHosts) {
+		this.failoverHosts = failoverHosts;
+	}
+}
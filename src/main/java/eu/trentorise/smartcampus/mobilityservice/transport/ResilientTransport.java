@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Transport decorator adding resilience to the remote calls:
+ * <ul>
+ * <li>idempotent calls (GET, PUT, DELETE and the POST endpoints declared idempotent) failing 
+ * with I/O or server errors are retried with exponential backoff and full jitter, possibly 
+ * on the configured failover hosts;</li>
+ * <li>a circuit breaker for each endpoint family ({@link #FAMILY_DATA}, {@link #FAMILY_PLANNER}, 
+ * {@link #FAMILY_USER}, {@link #FAMILY_ALERT}) rejects the calls immediately with 
+ * {@link CircuitOpenException} while the corresponding server functionality is failing.</li>
+ * </ul>
+ * Authorization errors and client errors (4xx) are neither retried nor counted as failures.
+ * 
+ * @author raman
+ *
+ */
+public class ResilientTransport implements MobilityTransport {
+
+	public static final String FAMILY_DATA = "data";
+	public static final String FAMILY_PLANNER = "planner";
+	public static final String FAMILY_USER = "user";
+	public static final String FAMILY_ALERT = "alert";
+
+	private static final Map<String, String> FAMILIES = new HashMap<String, String>();
+	static {
+		FAMILIES.put("plansinglejourney", FAMILY_PLANNER);
+		FAMILIES.put("planrecurrent", FAMILY_PLANNER);
+		FAMILIES.put("itinerary", FAMILY_USER);
+		FAMILIES.put("recurrent", FAMILY_USER);
+		FAMILIES.put("alert", FAMILY_ALERT);
+	}
+
+	private final MobilityTransport delegate;
+	private final ResiliencePolicy policy;
+	private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	private final Random random = new Random();
+	private final AtomicLong retries = new AtomicLong();
+
+	/**
+	 * @param delegate transport performing the calls
+	 * @param policy resilience configuration
+	 */
+	public ResilientTransport(MobilityTransport delegate, ResiliencePolicy policy) {
+		this.delegate = delegate;
+		this.policy = policy;
+	}
+
+	/**
+	 * @return circuit breakers of the endpoint families called so far
+	 */
+	public Map<String, CircuitBreaker> getCircuitBreakers() {
+		return new HashMap<String, CircuitBreaker>(breakers);
+	}
+
+	/**
+	 * @return total number of retries performed
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * @param service relative service path
+	 * @return endpoint family of the service
+	 */
+	public static String getFamily(String service) {
+		String family = FAMILIES.get(PooledHttpTransport.toEndpoint(service));
+		return family == null ? FAMILY_DATA : family;
+	}
+
+	@Override
+	public String getJSON(String host, final String service, final String token) throws SecurityException, RemoteException {
+		return invoke(host, service, true, new Call<String>() {
+			@Override
+			String execute(String host) throws SecurityException, RemoteException {
+				return delegate.getJSON(host, service, token);
+			}
+		});
+	}
+
+	@Override
+	public String getJSON(String host, final String service, final String token, final Map<String, Object> parameters) throws SecurityException, RemoteException {
+		return invoke(host, service, true, new Call<String>() {
+			@Override
+			String execute(String host) throws SecurityException, RemoteException {
+				return delegate.getJSON(host, service, token, parameters);
+			}
+		});
+	}
+
+	@Override
+	public ConditionalResponse getConditional(String host, final String service, final String token, final String etag, final String lastModified) throws SecurityException, RemoteException {
+		return invoke(host, service, true, new Call<ConditionalResponse>() {
+			@Override
+			ConditionalResponse execute(String host) throws SecurityException, RemoteException {
+				return delegate.getConditional(host, service, token, etag, lastModified);
+			}
+		});
+	}
+
+	@Override
+	public String postJSON(String host, final String service, final String body, final String token) throws SecurityException, RemoteException {
+		boolean idempotent = policy.getIdempotentPostEndpoints() != null 
+				&& policy.getIdempotentPostEndpoints().contains(PooledHttpTransport.toEndpoint(service));
+		return invoke(host, service, idempotent, new Call<String>() {
+			@Override
+			String execute(String host) throws SecurityException, RemoteException {
+				return delegate.postJSON(host, service, body, token);
+			}
+		});
+	}
+
+	@Override
+	public String putJSON(String host, final String service, final String body, final String token) throws SecurityException, RemoteException {
+		return invoke(host, service, true, new Call<String>() {
+			@Override
+			String execute(String host) throws SecurityException, RemoteException {
+				return delegate.putJSON(host, service, body, token);
+			}
+		});
+	}
+
+	@Override
+	public String deleteJSON(String host, final String service, final String token) throws SecurityException, RemoteException {
+		return invoke(host, service, true, new Call<String>() {
+			@Override
+			String execute(String host) throws SecurityException, RemoteException {
+				return delegate.deleteJSON(host, service, token);
+			}
+		});
+	}
+
+	@Override
+	public InputStream getStream(String host, final String service, final String token) throws SecurityException, RemoteException {
+		return invoke(host, service, true, new Call<InputStream>() {
+			@Override
+			InputStream execute(String host) throws SecurityException, RemoteException {
+				return delegate.getStream(host, service, token);
+			}
+		});
+	}
+
+	@Override
+	public RangeResponse getRange(String host, final String service, final String token, final long offset, final String ifRange) throws SecurityException, RemoteException {
+		return invoke(host, service, true, new Call<RangeResponse>() {
+			@Override
+			RangeResponse execute(String host) throws SecurityException, RemoteException {
+				return delegate.getRange(host, service, token, offset, ifRange);
+			}
+		});
+	}
+
+	private <T> T invoke(String host, String service, boolean idempotent, Call<T> call) throws SecurityException, RemoteException {
+		String family = getFamily(service);
+		CircuitBreaker breaker = getCircuitBreaker(family);
+		int attempts = idempotent ? policy.getMaxRetries() + 1 : 1;
+		RemoteException error = null;
+		for (int attempt = 0; attempt < attempts; attempt++) {
+			if (attempt > 0) {
+				if (!backoff(attempt)) break;
+				retries.incrementAndGet();
+			}
+			if (!breaker.allowRequest()) {
+				throw new CircuitOpenException(family);
+			}
+			try {
+				T result = call.execute(getHost(host, attempt));
+				breaker.onSuccess();
+				return result;
+			} catch (SecurityException e) {
+				breaker.onSuccess();
+				throw e;
+			} catch (RemoteException e) {
+				if (!isServerFailure(e)) {
+					breaker.onSuccess();
+					throw e;
+				}
+				breaker.onFailure();
+				error = e;
+			} catch (RuntimeException e) {
+				// unexpected error: not retried, but the outcome must be recorded to end a probe
+				breaker.onFailure();
+				throw e;
+			}
+		}
+		throw error;
+	}
+
+	private CircuitBreaker getCircuitBreaker(String family) {
+		CircuitBreaker breaker = breakers.get(family);
+		if (breaker == null) {
+			CircuitBreaker created = new CircuitBreaker(family, policy.getFailureThreshold(), policy.getOpenTimeout());
+			breaker = breakers.putIfAbsent(family, created);
+			if (breaker == null) breaker = created;
+		}
+		return breaker;
+	}
+
+	private String getHost(String host, int attempt) {
+		if (policy.getFailoverHosts() == null || policy.getFailoverHosts().isEmpty()) {
+			return host;
+		}
+		int idx = attempt % (policy.getFailoverHosts().size() + 1);
+		return idx == 0 ? host : policy.getFailoverHosts().get(idx - 1);
+	}
+
+	/**
+	 * Sleep a random time up to the exponentially growing delay for the attempt
+	 * @return false if interrupted
+	 */
+	private boolean backoff(int attempt) {
+		long cap = Math.min(policy.getMaxDelay(), policy.getBaseDelay() * (1L << Math.min(attempt - 1, 20)));
+		long delay = (long) (random.nextDouble() * cap);
+		try {
+			Thread.sleep(delay);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * @return true for I/O errors and 5xx/429 responses; other status codes are client errors
+	 */
+	private static boolean isServerFailure(RemoteException e) {
+		if (e instanceof StatusException) {
+			int status = ((StatusException) e).getStatus();
+			return status >= 500 || status == 429;
+		}
+		return !(e instanceof CircuitOpenException);
+	}
+
+	private static abstract class Call<T> {
+		abstract T execute(String host) throws SecurityException, RemoteException;
+	}
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Error response of the server with the corresponding HTTP status code.
+ * 
+ * @author raman
+ *
+ */
+public class StatusException extends RemoteException {
+	private static final long serialVersionUID = -2853519427329917380L;
+
+	private final int status;
+
+	public StatusException(int status) {
+		super("Internal error: " + status);
+		this.status = status;
+	}
+
+	/**
+	 * @return HTTP status code of the response
+	 */
+	public int getStatus() {
+		return status;
+	}
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configuration of the {@link PooledHttpTransport}: connection pool bounds, 
+ * idle connection eviction and timeouts. 
+ * 
+ * @author raman
+ *
+ */
+public class TransportConfig {
+
+	private int maxTotalConnections = 40;
+	private int maxConnectionsPerRoute = 10;
+	private Map<String, Integer> maxConnectionsPerHost = new HashMap<String, Integer>();
+	private long idleTimeout = 30000;
+	private long evictionInterval = 5000;
+	private long connectionRequestTimeout = 10000;
+	private int connectTimeout = 10000;
+	private int socketTimeout = 60000;
+	private boolean compression = true;
+
+	/**
+	 * @return max number of connections in the pool
+	 */
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+	/**
+	 * @param maxTotalConnections max number of connections in the pool
+	 */
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		this.maxTotalConnections = maxTotalConnections;
+	}
+	/**
+	 * @return default max number of connections for a single route (host)
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+	/**
+	 * @param maxConnectionsPerRoute default max number of connections for a single route (host)
+	 */
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+	/**
+	 * @return max number of connections for specific hosts, overriding the default per-route limit
+	 */
+	public Map<String, Integer> getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+	/**
+	 * @param maxConnectionsPerHost max number of connections for specific hosts, in the form 'scheme://host[:port]'
+	 */
+	public void setMaxConnectionsPerHost(Map<String, Integer> maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+	/**
+	 * @return time (in millis) after which an idle connection is evicted from the pool
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+	/**
+	 * @param idleTimeout time (in millis) after which an idle connection is evicted from the pool
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+	/**
+	 * @return period (in millis) of the idle connection eviction task; non-positive value disables eviction
+	 */
+	public long getEvictionInterval() {
+		return evictionInterval;
+	}
+	/**
+	 * @param evictionInterval period (in millis) of the idle connection eviction task; non-positive value disables eviction
+	 */
+	public void setEvictionInterval(long evictionInterval) {
+		this.evictionInterval = evictionInterval;
+	}
+	/**
+	 * @return max time (in millis) to wait for a free connection from the pool
+	 */
+	public long getConnectionRequestTimeout() {
+		return connectionRequestTimeout;
+	}
+	/**
+	 * @param connectionRequestTimeout max time (in millis) to wait for a free connection from the pool
+	 */
+	public void setConnectionRequestTimeout(long connectionRequestTimeout) {
+		this.connectionRequestTimeout = connectionRequestTimeout;
+	}
+	/**
+	 * @return connect timeout in millis
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+	/**
+	 * @param connectTimeout connect timeout in millis
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+	/**
+	 * @return socket read timeout in millis
+	 */
+	public int getSocketTimeout() {
+		return socketTimeout;
+	}
+	/**
+	 * @param socketTimeout socket read timeout in millis
+	 */
+	public void setSocketTimeout(int socketTimeout) {
+		this.socketTimeout = socketTimeout;
+	}
+	/**
+	 * @return whether gzip/deflate compressed responses are requested
+	 */
+	public boolean isCompression() {
+		return compression;
+	}
+	/**
+	 * @param compression whether gzip/deflate compressed responses are requested
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice.transport;
+
+/**
+ * Snapshot of the {@link PooledHttpTransport} state.
+ * 
+ * @author raman
+ *
+ */
+public class TransportStats {
+
+	private int maxTotalConnections;
+	private int maxConnectionsPerRoute;
+	private int pooledConnections;
+	private int activeRequests;
+	private long totalRequests;
+	private long failedRequests;
+	private long evictionRuns;
+
+	/**
+	 * @return configured max number of connections in the pool
+	 */
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		this.maxTotalConnections = maxTotalConnections;
+	}
+	/**
+	 * @return configured default max number of connections per route
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+	/**
+	 * @return number of connections (leased and idle) currently held by the pool
+	 */
+	public int getPooledConnections() {
+		return pooledConnections;
+	}
+	public void setPooledConnections(int pooledConnections) {
+		this.pooledConnections = pooledConnections;
+	}
+	/**
+	 * @return number of requests currently in progress, including those whose response content is still being read
+	 */
+	public int getActiveRequests() {
+		return activeRequests;
+	}
+	public void setActiveRequests(int activeRequests) {
+		this.activeRequests = activeRequests;
+	}
+	/**
+	 * @return number of requests performed since creation
+	 */
+	public long getTotalRequests() {
+		return totalRequests;
+	}
+	public void setTotalRequests(long totalRequests) {
+		this.totalRequests = totalRequests;
+	}
+	/**
+	 * @return number of requests failed with I/O error or non-success status
+	 */
+	public long getFailedRequests() {
+		return failedRequests;
+	}
+	public void setFailedRequests(long failedRequests) {
+		this.failedRequests = failedRequests;
+	}
+	/**
+	 * @return number of idle connection eviction runs
+	 */
+	public long getEvictionRuns() {
+		return evictionRuns;
+	}
+	public void setEvictionRuns(long evictionRuns) {
+		this.evictionRuns = evictionRuns;
+	}
+
+	@Override
+	public String toString() {
+		return "TransportStats [pooled=" + pooledConnections + "/" + maxTotalConnections 
+				+ ", perRoute=" + maxConnectionsPerRoute + ", active=" + activeRequests 
+				+ ", total=" + totalRequests + ", failed=" + failedRequests 
+				+ ", evictionRuns=" + evictionRuns + "]";
+	}
+}
@@ -52,6 +52,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipInputStream;
 
 import junit.framework.Assert;
@@ -69,6 +71,8 @@ import eu.trentorise.smartcampus.mobilityservice.model.TaxiContact;
 import eu.trentorise.smartcampus.mobilityservice.model.TaxiStation;
 import eu.trentorise.smartcampus.mobilityservice.model.TimeTable;
 import eu.trentorise.smartcampus.mobilityservice.model.TripData;
+import eu.trentorise.smartcampus.mobilityservice.transport.PooledHttpTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.TransportStats;
 import eu.trentorise.smartcampus.network.JsonUtils;
 import eu.trentorise.smartcampus.network.RemoteConnector;
 import eu.trentorise.smartcampus.network.RemoteConnector.CLIENT_TYPE;
@@ -554,4 +558,41 @@ public class TestClient {
 		Assert.assertTrue(stops.size() > 0);
 		System.err.println(stops);
 	}
+
+	@Test
+	public void pooledTransport() throws SecurityException, MobilityServiceException {
+		PooledHttpTransport transport = new PooledHttpTransport();
+		try {
+			MobilityDataService pooledDataService = new MobilityDataService(Constants.SERVER_URL, transport);
+			for (int i = 0; i < 5; i++) {
+				List<Route> routes = pooledDataService.getRoutes("12",Constants.USER_AUTH_TOKEN);
+				Assert.assertNotNull(routes);
+			}
+			TransportStats stats = transport.getStats();
+			Assert.assertEquals(5, stats.getTotalRequests());
+			// keep-alive: the same connection is reused for sequential calls
+			Assert.assertEquals(1, stats.getPooledConnections());
+			System.err.println(stats);
+		} finally {
+			transport.shutdown();
+		}
+	}
+
+	@Test
+	public void asyncBoard() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			AsyncMobilityDataService asyncService = new AsyncMobilityDataService(dataService, executor);
+			List<Stop> stops = dataService.getStops("12", dataService.getRoutes("12", Constants.USER_AUTH_TOKEN).get(0).getId().getId(), Constants.USER_AUTH_TOKEN);
+			// all the calls of the board run in parallel
+			MobilityFuture<List<TripData>> trips = asyncService.getNextTrips("12", stops.get(0).getId(), 3, Constants.USER_AUTH_TOKEN);
+			MobilityFuture<List<Parking>> parkings = asyncService.getParkings("COMUNE_DI_ROVERETO", Constants.USER_AUTH_TOKEN);
+			MobilityFuture<List<Parking>> bikes = asyncService.getBikeSharings("BIKE_SHARING_TOBIKE_ROVERETO", Constants.USER_AUTH_TOKEN);
+			Assert.assertNotNull(trips.get());
+			Assert.assertNotNull(parkings.get());
+			Assert.assertNotNull(bikes.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
 }
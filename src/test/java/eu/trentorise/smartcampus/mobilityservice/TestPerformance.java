@@ -0,0 +1,1660 @@
+/*******************************************************************************
+ * Copyright 2015 Fondazione Bruno Kessler
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ ******************************************************************************/
+package eu.trentorise.smartcampus.mobilityservice;
+
+import it.sayservice.platform.smartplanner.data.message.alerts.CreatorType;
+import it.sayservice.platform.smartplanner.data.message.journey.SingleJourney;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Parking;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.GeolocalizedStopRequest;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Route;
+import it.sayservice.platform.smartplanner.data.message.otpbeans.Stop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.trentorise.smartcampus.mobilityservice.MobilityExecutors.ExecutionMode;
+import eu.trentorise.smartcampus.mobilityservice.cache.AvailabilityCache;
+import eu.trentorise.smartcampus.mobilityservice.cache.CacheSync;
+import eu.trentorise.smartcampus.mobilityservice.cache.GeoStopIndex;
+import eu.trentorise.smartcampus.mobilityservice.cache.IdDictionary;
+import eu.trentorise.smartcampus.mobilityservice.cache.MemoryCacheStore;
+import eu.trentorise.smartcampus.mobilityservice.cache.ModelCodec;
+import eu.trentorise.smartcampus.mobilityservice.cache.ResponseCache;
+import eu.trentorise.smartcampus.mobilityservice.cache.SingleFlight;
+import eu.trentorise.smartcampus.mobilityservice.cache.Snapshot;
+import eu.trentorise.smartcampus.mobilityservice.cache.TaxiStationCache;
+import eu.trentorise.smartcampus.mobilityservice.cache.TimeTableStore;
+import eu.trentorise.smartcampus.mobilityservice.cache.StaticDataCache;
+import eu.trentorise.smartcampus.mobilityservice.json.TransitDecoder;
+import eu.trentorise.smartcampus.mobilityservice.model.BasicItinerary;
+import eu.trentorise.smartcampus.mobilityservice.model.CompactTimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.Delay;
+import eu.trentorise.smartcampus.mobilityservice.model.Departure;
+import eu.trentorise.smartcampus.mobilityservice.model.DepartureIndex;
+import eu.trentorise.smartcampus.mobilityservice.model.TaxiStation;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeTable;
+import eu.trentorise.smartcampus.mobilityservice.model.TimeUtils;
+import eu.trentorise.smartcampus.mobilityservice.model.TripData;
+import eu.trentorise.smartcampus.mobilityservice.transport.CircuitBreaker;
+import eu.trentorise.smartcampus.mobilityservice.transport.CircuitOpenException;
+import eu.trentorise.smartcampus.mobilityservice.transport.ConditionalResponse;
+import eu.trentorise.smartcampus.mobilityservice.transport.EndpointStats;
+import eu.trentorise.smartcampus.mobilityservice.transport.HedgingPolicy;
+import eu.trentorise.smartcampus.mobilityservice.transport.HedgingTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.MobilityTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.PooledHttpTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.RangeResponse;
+import eu.trentorise.smartcampus.mobilityservice.transport.RemoteConnectorTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.ResiliencePolicy;
+import eu.trentorise.smartcampus.mobilityservice.transport.ResilientTransport;
+import eu.trentorise.smartcampus.mobilityservice.transport.StatusException;
+import eu.trentorise.smartcampus.mobilityservice.transport.TransportConfig;
+import eu.trentorise.smartcampus.network.JsonUtils;
+import eu.trentorise.smartcampus.network.RemoteException;
+
+/**
+ * Offline tests and benchmarks of the client against stub transports and local stub servers.
+ * 
+ * @author raman
+ *
+ */
+public class TestPerformance {
+
+	private static final String NEXT_TRIPS_JSON = 
+			"{\"R1\":{\"name\":\"Route 1\",\"route\":\"1\",\"times\":["
+			+ "{\"time\":1420110000000,\"trip\":{\"id\":\"T1\",\"agency\":\"12\"}},"
+			+ "{\"time\":1420110600000,\"trip\":{\"id\":\"T2\",\"agency\":\"12\"}}],"
+			+ "\"delays\":{\"T1\":{\"SERVICE\":\"2\"}}}}";
+
+	/**
+	 * @return getlimitedtimetable response with the specified number of routes and trips per route
+	 */
+	private static String nextTripsJson(int routes, int trips) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int r = 0; r < routes; r++) {
+			if (r > 0) sb.append(',');
+			sb.append("\"R").append(r).append("\":{\"name\":\"Route ").append(r).append("\",\"route\":\"").append(r).append("\",\"times\":[");
+			for (int t = 0; t < trips; t++) {
+				if (t > 0) sb.append(',');
+				sb.append("{\"time\":").append(1420110000000L + t * 600000L).append(",\"trip\":{\"id\":\"T").append(r).append('_').append(t).append("\",\"agency\":\"12\"}}");
+			}
+			sb.append("],\"delays\":{\"T").append(r).append("_0\":{\"SERVICE\":\"2\"}}}");
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * @return gettransittimes response with the specified number of trips and stops
+	 */
+	static String timeTableJson(int trips, int stops) {
+		StringBuilder sb = new StringBuilder("{\"stops\":[");
+		for (int s = 0; s < stops; s++) {
+			sb.append(s == 0 ? "" : ",").append("\"Stop ").append(s).append('"');
+		}
+		sb.append("],\"stopsId\":[");
+		for (int s = 0; s < stops; s++) {
+			sb.append(s == 0 ? "" : ",").append("\"S").append(s).append('"');
+		}
+		sb.append("],\"tripIds\":[[");
+		for (int t = 0; t < trips; t++) {
+			sb.append(t == 0 ? "" : ",").append("\"T").append(t).append('"');
+		}
+		sb.append("]],\"times\":[[");
+		for (int t = 0; t < trips; t++) {
+			sb.append(t == 0 ? "[" : ",[");
+			for (int s = 0; s < stops; s++) {
+				int minutes = 360 + t * 10 + s * 2;
+				sb.append(s == 0 ? "" : ",").append('"');
+				if (s % 5 != 4) {
+					sb.append(String.format("%02d:%02d", minutes / 60 % 24, minutes % 60));
+				}
+				sb.append('"');
+			}
+			sb.append(']');
+		}
+		sb.append("]],\"delays\":[[");
+		for (int t = 0; t < trips; t++) {
+			sb.append(t == 0 ? "" : ",").append(t % 3 == 0 ? "{\"SERVICE\":\"" + t % 7 + "\"}" : "{}");
+		}
+		return sb.append("]]}").toString();
+	}
+
+	@Test
+	public void executionModes() throws Exception {
+		int[] concurrency = new int[]{100, 1000, 5000};
+		System.err.println("mode\tcalls\tms\tcalls/s");
+		for (int calls : concurrency) {
+			benchmark(ExecutionMode.PLATFORM, calls);
+			if (MobilityExecutors.isVirtualThreadSupported()) {
+				benchmark(ExecutionMode.VIRTUAL, calls);
+			}
+		}
+	}
+
+	@Test
+	public void coalescedNextTrips() throws Exception {
+		StubTransport transport = new StubTransport(NEXT_TRIPS_JSON, 200);
+		final MobilityDataService dataService = new MobilityDataService("http://localhost/", transport);
+		dataService.setSingleFlight(new SingleFlight());
+		int callers = 200;
+		ExecutorService executor = Executors.newFixedThreadPool(callers);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<List<TripData>>> results = new ArrayList<Future<List<TripData>>>();
+			for (int i = 0; i < callers; i++) {
+				results.add(executor.submit(new Callable<List<TripData>>() {
+					@Override
+					public List<TripData> call() throws Exception {
+						start.await();
+						return dataService.getNextTrips("12", "stop1", 3, "");
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<List<TripData>> f : results) {
+				Assert.assertEquals(2, f.get().size());
+			}
+			// all the callers join the first round trip (a late one may start a second)
+			Assert.assertTrue(transport.getCalls() <= 2);
+			Assert.assertEquals(callers, dataService.getSingleFlight().getExecuted() + dataService.getSingleFlight().getCoalesced());
+			// different token scope is not shared
+			dataService.getNextTrips("12", "stop1", 3, "other");
+			Assert.assertEquals(0, dataService.getSingleFlight().getInFlight());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void batchNextTrips() throws Exception {
+		StubTransport transport = new StubTransport(NEXT_TRIPS_JSON, 20) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				if (service.contains("/bad/")) throw new RemoteException("Internal error: 500");
+				if (service.contains("/slow/")) {
+					try {
+						Thread.sleep(5000);
+					} catch (InterruptedException e) {
+						throw new RemoteException(e);
+					}
+				}
+				return super.respond(service);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			AsyncMobilityDataService asyncService = new AsyncMobilityDataService(new MobilityDataService("http://localhost/", transport), executor);
+			List<String> stopIds = new ArrayList<String>();
+			for (int i = 0; i < 50; i++) {
+				stopIds.add("stop" + i);
+			}
+			stopIds.add("bad");
+			stopIds.add("slow");
+			// warm up the decoder
+			asyncService.getNextTrips("12", "stop", 3, "").get();
+			BatchResult<List<TripData>> result = asyncService.getNextTrips("12", stopIds, 3, "", 4, 2000);
+			Assert.assertEquals(50, result.getResults().size());
+			Assert.assertEquals(2, result.getErrors().size());
+			Assert.assertTrue(result.getErrors().get("bad") instanceof MobilityServiceException);
+			Assert.assertTrue(result.getErrors().get("slow") instanceof TimeoutException);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// rejected calls are reported for their stop, without losing the permit
+		final ExecutorService delegate = Executors.newSingleThreadExecutor();
+		try {
+			final AtomicInteger submitted = new AtomicInteger();
+			Executor rejecting = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					if (submitted.incrementAndGet() % 2 == 0) throw new RejectedExecutionException();
+					delegate.execute(command);
+				}
+			};
+			AsyncMobilityDataService asyncService = new AsyncMobilityDataService(new MobilityDataService("http://localhost/", new StubTransport(NEXT_TRIPS_JSON, 0)), rejecting);
+			BatchResult<List<TripData>> result = asyncService.getNextTrips("12", Arrays.asList("s1", "s2", "s3", "s4", "s5"), 3, "", 1, 2000);
+			Assert.assertEquals(Arrays.asList("s1", "s3", "s5"), new ArrayList<String>(result.getResults().keySet()));
+			Assert.assertEquals(2, result.getErrors().size());
+			Assert.assertTrue(result.getErrors().get("s2") instanceof RejectedExecutionException);
+			Assert.assertTrue(result.getErrors().get("s4") instanceof RejectedExecutionException);
+		} finally {
+			delegate.shutdownNow();
+		}
+	}
+
+	@Test
+	public void resilience() throws Exception {
+		final AtomicInteger failures = new AtomicInteger(2);
+		StubTransport stub = new StubTransport(NEXT_TRIPS_JSON, 0) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				super.respond(service);
+				if (failures.getAndDecrement() > 0) throw new StatusException(503);
+				return NEXT_TRIPS_JSON;
+			}
+		};
+		ResiliencePolicy policy = new ResiliencePolicy();
+		policy.setBaseDelay(10);
+		policy.setFailureThreshold(3);
+		policy.setOpenTimeout(200);
+		ResilientTransport transport = new ResilientTransport(stub, policy);
+		MobilityDataService dataService = new MobilityDataService("http://localhost/", transport);
+
+		// transient failures are retried
+		Assert.assertEquals(2, dataService.getNextTrips("12", "stop1", 3, "").size());
+		Assert.assertEquals(3, stub.getCalls());
+		Assert.assertEquals(2, transport.getRetries());
+
+		// persistent failures open the data circuit
+		failures.set(100);
+		try {
+			dataService.getNextTrips("12", "stop1", 3, "");
+			Assert.fail();
+		} catch (MobilityServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof StatusException);
+		}
+		CircuitBreaker breaker = transport.getCircuitBreakers().get(ResilientTransport.FAMILY_DATA);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		int calls = stub.getCalls();
+		try {
+			dataService.getNextTrips("12", "stop1", 3, "");
+			Assert.fail();
+		} catch (MobilityServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof CircuitOpenException);
+		}
+		Assert.assertEquals(calls, stub.getCalls());
+
+		// probe after the open timeout closes the circuit
+		failures.set(0);
+		Thread.sleep(250);
+		Assert.assertEquals(2, dataService.getNextTrips("12", "stop1", 3, "").size());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		System.err.println(breaker);
+
+		// with the default transport client errors are not retried, server errors are
+		final AtomicInteger requests = new AtomicInteger();
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				exchange.sendResponseHeaders(exchange.getRequestURI().getPath().contains("missing") ? 404 : 503, -1);
+				exchange.close();
+			}
+		});
+		try {
+			ResilientTransport defaultTransport = new ResilientTransport(new RemoteConnectorTransport(), policy);
+			try {
+				defaultTransport.getJSON(serverUrl(server), "getroutes/missing", "");
+				Assert.fail();
+			} catch (StatusException e) {
+				Assert.assertEquals(404, e.getStatus());
+			}
+			try {
+				defaultTransport.putJSON(serverUrl(server), "missing", "{}", "");
+				Assert.fail();
+			} catch (StatusException e) {
+				Assert.assertEquals(404, e.getStatus());
+			}
+			Assert.assertEquals(2, requests.get());
+			Assert.assertEquals(0, defaultTransport.getRetries());
+			Assert.assertEquals(0, defaultTransport.getCircuitBreakers().get(ResilientTransport.FAMILY_DATA).getConsecutiveFailures());
+			try {
+				defaultTransport.getJSON(serverUrl(server), "getroutes/12", "");
+				Assert.fail();
+			} catch (StatusException e) {
+				Assert.assertEquals(503, e.getStatus());
+			}
+			Assert.assertEquals(2 + policy.getMaxRetries() + 1, requests.get());
+			Assert.assertEquals(policy.getMaxRetries(), defaultTransport.getRetries());
+		} finally {
+			server.stop(0);
+		}
+
+		// an unexpected error of the probe call does not leave the circuit half-open forever
+		final AtomicInteger broken = new AtomicInteger(100);
+		StubTransport faulty = new StubTransport(NEXT_TRIPS_JSON, 0) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				int state = broken.get();
+				if (state > 1) throw new StatusException(503);
+				if (state == 1) throw new IllegalStateException();
+				return super.respond(service);
+			}
+		};
+		ResilientTransport probed = new ResilientTransport(faulty, policy);
+		try {
+			probed.getJSON("http://localhost/", "getroutes/12", "");
+			Assert.fail();
+		} catch (StatusException e) {
+		}
+		CircuitBreaker probedBreaker = probed.getCircuitBreakers().get(ResilientTransport.FAMILY_DATA);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, probedBreaker.getState());
+		broken.set(1);
+		Thread.sleep(250);
+		try {
+			probed.getJSON("http://localhost/", "getroutes/12", "");
+			Assert.fail();
+		} catch (IllegalStateException e) {
+		}
+		Assert.assertEquals(CircuitBreaker.State.OPEN, probedBreaker.getState());
+		broken.set(0);
+		Thread.sleep(250);
+		Assert.assertEquals(NEXT_TRIPS_JSON, probed.getJSON("http://localhost/", "getroutes/12", ""));
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, probedBreaker.getState());
+	}
+
+	@Test
+	public void hedgedPlanning() throws Exception {
+		final Random random = new Random(42);
+		// 3% of the requests hit a slow server instance
+		StubTransport stub = new StubTransport("[]", 0) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				boolean slow;
+				synchronized (random) {
+					slow = random.nextInt(33) == 0;
+				}
+				try {
+					Thread.sleep(slow ? 400 : 10);
+				} catch (InterruptedException e) {
+					throw new RemoteException(e);
+				}
+				return super.respond(service);
+			}
+		};
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			HedgingPolicy policy = new HedgingPolicy();
+			policy.setInitialDelay(50);
+			policy.setMaxHedgeRatio(0.2);
+			HedgingTransport hedging = new HedgingTransport(stub, policy, executor);
+			long[] plain = planLatencies(new MobilityPlannerService("http://localhost/", stub), 300);
+			long[] hedged = planLatencies(new MobilityPlannerService("http://localhost/", hedging), 300);
+			System.err.println("plain p50=" + plain[149] + " p95=" + plain[284] + " p99=" + plain[296]);
+			System.err.println("hedged p50=" + hedged[149] + " p95=" + hedged[284] + " p99=" + hedged[296] 
+					+ " (delay=" + hedging.getDelay() + ", hedges=" + hedging.getHedges() + ", wins=" + hedging.getHedgeWins() + ")");
+			Assert.assertTrue(hedging.getHedges() > 0);
+			Assert.assertTrue(hedging.getHedgeWins() > 0);
+			Assert.assertTrue(hedging.getHedgeWins() <= hedging.getHedges());
+			Assert.assertEquals(300, hedging.getHedgedCalls());
+			Assert.assertTrue(hedging.getHedges() <= 0.2 * hedging.getHedgedCalls() + 1);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// a hedge rejected by a saturated executor does not cancel the first attempt
+		final ExecutorService single = Executors.newSingleThreadExecutor();
+		try {
+			final AtomicInteger submitted = new AtomicInteger();
+			Executor saturated = new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					if (submitted.incrementAndGet() > 1) throw new RejectedExecutionException();
+					single.execute(command);
+				}
+			};
+			HedgingPolicy policy = new HedgingPolicy();
+			policy.setDelay(10);
+			HedgingTransport hedging = new HedgingTransport(new StubTransport("[]", 100), policy, saturated);
+			Assert.assertEquals(0, new MobilityPlannerService("http://localhost/", hedging).planSingleJourney(new SingleJourney(), "").size());
+			Assert.assertEquals(2, submitted.get());
+			Assert.assertEquals(1, hedging.getHedgedCalls());
+			Assert.assertEquals(0, hedging.getHedges());
+		} finally {
+			single.shutdownNow();
+		}
+	}
+
+	private long[] planLatencies(MobilityPlannerService plannerService, int calls) throws Exception {
+		long[] latencies = new long[calls];
+		for (int i = 0; i < calls; i++) {
+			long start = System.currentTimeMillis();
+			plannerService.planSingleJourney(new SingleJourney(), "");
+			latencies[i] = System.currentTimeMillis() - start;
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	@Test
+	public void compressedResponses() throws Exception {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < 1000; i++) {
+			if (i > 0) sb.append(',');
+			sb.append("\"agency").append(i).append("\":").append(1420110000000L + i);
+		}
+		final byte[] json = sb.append('}').toString().getBytes("UTF-8");
+
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				byte[] body = json;
+				if (encoding != null && encoding.contains("gzip")) {
+					ByteArrayOutputStream bos = new ByteArrayOutputStream();
+					GZIPOutputStream gzip = new GZIPOutputStream(bos);
+					gzip.write(json);
+					gzip.close();
+					body = bos.toByteArray();
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+				exchange.close();
+			}
+		});
+		PooledHttpTransport transport = new PooledHttpTransport();
+		try {
+			MobilityDataService dataService = new MobilityDataService(serverUrl(server), transport);
+			Map<String, Long> versions = dataService.getVersions("");
+			Assert.assertEquals(1000, versions.size());
+			EndpointStats stats = transport.getEndpointStats().get("versions");
+			Assert.assertEquals(json.length, stats.getUncompressedBytes());
+			Assert.assertTrue(stats.getCompressedBytes() < stats.getUncompressedBytes());
+			System.err.println(stats);
+		} finally {
+			transport.shutdown();
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void streamedParkings() throws Exception {
+		final int count = 20000;
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				// chunked response, written while the client is decoding
+				exchange.sendResponseHeaders(200, 0);
+				Writer w = new OutputStreamWriter(exchange.getResponseBody(), "UTF-8");
+				w.write('[');
+				for (int i = 0; i < count; i++) {
+					if (i > 0) w.write(',');
+					w.write("{\"name\":\"Parking \\\"" + i + "\\\"\",\"slotsAvailable\":" + i + ",\"position\":[46.06,11.12]}");
+				}
+				w.write(']');
+				w.close();
+				exchange.close();
+			}
+		});
+		PooledHttpTransport transport = new PooledHttpTransport();
+		try {
+			MobilityDataService dataService = new MobilityDataService(serverUrl(server), transport);
+			final AtomicInteger items = new AtomicInteger();
+			dataService.getParkings("COMUNE_DI_TRENTO", "", new MobilityItemHandler<Parking>() {
+				@Override
+				public void onItem(Parking item) {
+					Assert.assertEquals("Parking \"" + items.getAndIncrement() + "\"", item.getName());
+				}
+			});
+			Assert.assertEquals(count, items.get());
+			Assert.assertEquals(0, transport.getStats().getActiveRequests());
+
+			// partial consumption: the request is active until the stream is closed
+			MobilityIterator<Parking> iterator = dataService.iterateParkings("COMUNE_DI_TRENTO", "");
+			Assert.assertTrue(iterator.hasNext());
+			Assert.assertNotNull(iterator.next());
+			Assert.assertEquals(1, transport.getStats().getActiveRequests());
+			iterator.close();
+			Assert.assertFalse(iterator.hasNext());
+			Assert.assertEquals(0, transport.getStats().getActiveRequests());
+		} finally {
+			transport.shutdown();
+			server.stop(0);
+		}
+
+		// decoding errors close the stream and are reported as such
+		final String mismatch = "[{\"name\":\"P1\",\"slotsAvailable\":\"many\"}]";
+		final AtomicInteger closed = new AtomicInteger();
+		MobilityIterator<Parking> iterator = new MobilityIterator<Parking>(new ByteArrayInputStream(mismatch.getBytes("UTF-8")) {
+			@Override
+			public void close() throws IOException {
+				closed.incrementAndGet();
+				super.close();
+			}
+		}, Parking.class);
+		try {
+			iterator.next();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		Assert.assertEquals(1, closed.get());
+		Assert.assertFalse(iterator.hasNext());
+
+		MobilityDataService dataService = new MobilityDataService("http://localhost", new StubTransport(mismatch, 0));
+		try {
+			dataService.getParkings("COMUNE_DI_TRENTO", "", new MobilityItemHandler<Parking>() {
+				@Override
+				public void onItem(Parking item) {
+				}
+			});
+			Assert.fail();
+		} catch (MobilityServiceException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		// errors of the handler are not service errors
+		dataService = new MobilityDataService("http://localhost", new StubTransport("[{\"name\":\"P1\"}]", 0));
+		try {
+			dataService.getParkings("COMUNE_DI_TRENTO", "", new MobilityItemHandler<Parking>() {
+				@Override
+				public void onItem(Parking item) {
+					throw new IllegalStateException("handler");
+				}
+			});
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("handler", e.getMessage());
+		}
+	}
+
+	@Test
+	public void conditionalRoutes() throws Exception {
+		final AtomicInteger requests = new AtomicInteger();
+		final AtomicInteger notModified = new AtomicInteger();
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+				} else {
+					byte[] body = "[{\"routeShortName\":\"1\"},{\"routeShortName\":\"2\"}]".getBytes("UTF-8");
+					exchange.getResponseHeaders().set("Content-Type", "application/json");
+					exchange.sendResponseHeaders(200, body.length);
+					exchange.getResponseBody().write(body);
+				}
+				exchange.close();
+			}
+		});
+		PooledHttpTransport transport = new PooledHttpTransport();
+		try {
+			MobilityDataService dataService = new MobilityDataService(serverUrl(server), transport);
+			dataService.setResponseCache(new ResponseCache());
+			List<Route> routes = dataService.getRoutes("12", "");
+			Assert.assertEquals(2, routes.size());
+			// validated with ETag: same decoded instance
+			Assert.assertSame(routes, dataService.getRoutes("12", ""));
+			Assert.assertEquals(2, requests.get());
+			Assert.assertEquals(1, notModified.get());
+			// agency version known and unchanged: no request at all
+			Map<String, Long> versions = new HashMap<String, Long>();
+			versions.put("12", 5L);
+			dataService.getResponseCache().updateVersions(versions);
+			dataService.getRoutes("12", "");
+			Assert.assertSame(routes, dataService.getRoutes("12", ""));
+			Assert.assertEquals(3, requests.get());
+		} finally {
+			transport.shutdown();
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void staticDataCache() throws Exception {
+		final AtomicInteger version = new AtomicInteger(1);
+		final AtomicInteger blocked = new AtomicInteger();
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		StubTransport transport = new StubTransport(null, 0) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				super.respond(service);
+				if (service.startsWith("versions")) {
+					return "{\"12\":" + version.get() + "}";
+				}
+				int current = version.get();
+				if (blocked.compareAndSet(current, 0)) {
+					loading.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new RemoteException(e);
+					}
+				}
+				return "[{\"routeShortName\":\"" + current + "\"}]";
+			}
+		};
+		StaticDataCache cache = new StaticDataCache(new MobilityDataService("http://localhost", transport));
+		cache.start("", 3600000);
+		try {
+			Assert.assertEquals(Long.valueOf(1), cache.getVersion("12"));
+			List<Route> routes = cache.getRoutes("12", "");
+			for (int i = 0; i < 100; i++) {
+				Assert.assertSame(routes, cache.getRoutes("12", ""));
+			}
+			// versions + routes
+			Assert.assertEquals(2, transport.getCalls());
+			// same version: data retained
+			cache.checkVersions("");
+			Assert.assertSame(routes, cache.getRoutes("12", ""));
+			Assert.assertEquals(3, transport.getCalls());
+			// newer version: data reloaded
+			version.set(2);
+			cache.checkVersions("");
+			Assert.assertTrue(routes != cache.getRoutes("12", ""));
+			Assert.assertEquals(5, transport.getCalls());
+
+			// a load in flight when the version changes is not joined by the callers of the new version
+			final StaticDataCache stale = new StaticDataCache(new MobilityDataService("http://localhost", transport));
+			stale.checkVersions("");
+			blocked.set(2);
+			ExecutorService executor = Executors.newFixedThreadPool(2);
+			Future<List<Route>> inFlight = executor.submit(new Callable<List<Route>>() {
+				@Override
+				public List<Route> call() throws Exception {
+					return stale.getRoutes("12", "");
+				}
+			});
+			loading.await();
+			version.set(3);
+			stale.checkVersions("");
+			Future<List<Route>> current = executor.submit(new Callable<List<Route>>() {
+				@Override
+				public List<Route> call() throws Exception {
+					return stale.getRoutes("12", "");
+				}
+			});
+			executor.shutdown();
+			try {
+				Assert.assertEquals("3", current.get(10, TimeUnit.SECONDS).get(0).getRouteShortName());
+			} finally {
+				release.countDown();
+			}
+			Assert.assertEquals("2", inFlight.get().get(0).getRouteShortName());
+			Assert.assertEquals("3", stale.getRoutes("12", "").get(0).getRouteShortName());
+		} finally {
+			cache.stop();
+		}
+	}
+
+	@Test
+	public void cacheSync() throws Exception {
+		final String[] status = {"{\"12\":{\"version\":1,\"added\":[\"a\",\"b\"],\"calendars\":{\"a\":\"{}\"}}}"};
+		final List<String> downloads = new ArrayList<String>();
+		StubTransport transport = new StubTransport(null, 0) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				super.respond(service);
+				if (service.startsWith("cachestatus")) {
+					return status[0];
+				}
+				downloads.add(service);
+				return "{\"update\":\"" + service + "\"}";
+			}
+		};
+		MemoryCacheStore store = new MemoryCacheStore();
+		CacheSync sync = new CacheSync(new MobilityDataService("http://localhost", transport), store, Arrays.asList("12"));
+		Assert.assertEquals(1, sync.sync("").size());
+		Assert.assertEquals(Arrays.asList("getcacheupdate/12/a", "getcacheupdate/12/b"), downloads);
+		Assert.assertEquals(Long.valueOf(1), store.getVersion("12"));
+		Assert.assertNotNull(store.getCalendars("12"));
+
+		// delta: only the new update is downloaded
+		status[0] = "{\"12\":{\"version\":2,\"added\":[\"c\"],\"removed\":[\"a\"]}}";
+		downloads.clear();
+		Assert.assertEquals(1, sync.sync("").size());
+		Assert.assertEquals(Arrays.asList("getcacheupdate/12/c"), downloads);
+		Assert.assertEquals(2, store.getUpdateIds("12").size());
+		Assert.assertNull(store.get("12", "a"));
+		Assert.assertNotNull(store.get("12", "c"));
+
+		// up to date: nothing downloaded
+		downloads.clear();
+		Assert.assertTrue(sync.sync("").isEmpty());
+		Assert.assertTrue(downloads.isEmpty());
+	}
+
+	@Test
+	public void resumedRoutesDB() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(bos);
+		zip.putNextEntry(new ZipEntry("routes.db"));
+		byte[] data = new byte[256 * 1024];
+		new Random(1).nextBytes(data);
+		zip.write(data);
+		zip.close();
+		final byte[] db = bos.toByteArray();
+		final List<String> ranges = new ArrayList<String>();
+
+		HttpServer server = startServer(new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				ranges.add(range);
+				exchange.getResponseHeaders().set("ETag", "\"db1\"");
+				if (range == null) {
+					// transfer stalled in the middle
+					exchange.sendResponseHeaders(200, db.length);
+					exchange.getResponseBody().write(db, 0, db.length / 2);
+					exchange.getResponseBody().flush();
+					return;
+				}
+				Assert.assertEquals("\"db1\"", exchange.getRequestHeaders().getFirst("If-Range"));
+				int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + (db.length - 1) + "/" + db.length);
+				exchange.sendResponseHeaders(206, db.length - from);
+				exchange.getResponseBody().write(db, from, db.length - from);
+				exchange.close();
+			}
+		});
+		File target = new File(System.getProperty("java.io.tmpdir"), "routesdb-" + System.nanoTime() + ".zip");
+		TransportConfig config = new TransportConfig();
+		config.setSocketTimeout(500);
+		PooledHttpTransport transport = new PooledHttpTransport(config);
+		try {
+			MobilityDataService dataService = new MobilityDataService(serverUrl(server), transport);
+			Assert.assertEquals(db.length, dataService.downloadRoutesDB("app", target, ""));
+			Assert.assertEquals(2, ranges.size());
+			Assert.assertNull(ranges.get(0));
+			Assert.assertNotNull(ranges.get(1));
+			Assert.assertEquals(db.length, target.length());
+			Assert.assertFalse(new File(target.getPath() + ".part").exists());
+			System.err.println("routesDB " + db.length + "B, resumed with " + ranges.get(1));
+		} finally {
+			transport.shutdown();
+			server.stop(0);
+			target.delete();
+		}
+	}
+
+	@Test
+	public void offlineQueries() throws Exception {
+		final String timeTable = timeTableJson(60, 20);
+		final List<String> delayCalls = new ArrayList<String>();
+		StubTransport transport = new StubTransport(null, 0) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				super.respond(service);
+				if (service.startsWith("gettransitdelays")) {
+					synchronized (delayCalls) {
+						delayCalls.add(service);
+					}
+				}
+				if (service.startsWith("getroutes")) {
+					return "[{\"id\":{\"id\":\"R1\",\"agency\":\"12\"},\"routeShortName\":\"1\"},"
+							+ "{\"id\":{\"id\":\"R2\",\"agency\":\"12\"},\"routeShortName\":\"2\"}]";
+				}
+				if (service.startsWith("getstops")) {
+					return "[{\"id\":\"S0\",\"name\":\"Stop 0\"},{\"id\":\"S1\",\"name\":\"Stop 1\"}]";
+				}
+				// gettransittimes and gettransitdelays
+				return timeTable;
+			}
+		};
+		OfflineDataService offline = new OfflineDataService(new MobilityDataService("http://localhost", transport));
+		Calendar cal = Calendar.getInstance();
+		cal.set(Calendar.HOUR_OF_DAY, 8);
+		cal.set(Calendar.MINUTE, 0);
+		long when = cal.getTimeInMillis();
+		offline.index("12", when, "");
+		int calls = transport.getCalls();
+		Assert.assertEquals(5, calls);
+
+		Assert.assertEquals(2, offline.getRoutes("12").size());
+		Assert.assertEquals(2, offline.getStops("12", "R1").size());
+		List<TripData> next = offline.getNextTrips("12", "S1", 3, when);
+		Assert.assertEquals(6, next.size());
+		for (int i = 0; i < next.size(); i++) {
+			Assert.assertTrue(next.get(i).getTime() >= when - 60000);
+			if (i > 0) Assert.assertTrue(next.get(i).getTime() >= next.get(i - 1).getTime());
+		}
+		Assert.assertEquals(6, offline.getStopTimes("12", "R1", "S1", when, when + 3600000).size());
+		Assert.assertEquals(calls, transport.getCalls());
+
+		int queries = 100000;
+		long start = System.nanoTime();
+		for (int i = 0; i < queries; i++) {
+			offline.getNextTrips("12", "S" + (i % 20), 3, when + (i % 600) * 60000L);
+		}
+		long nanos = (System.nanoTime() - start) / queries;
+		System.err.println("offline next trips: " + nanos / 1000.0 + "us/query");
+		Assert.assertEquals(calls, transport.getCalls());
+
+		// delays: one remote call per route
+		next = offline.getNextTrips("12", "S1", 3, when, "");
+		Assert.assertEquals(calls + 2, transport.getCalls());
+		boolean delayed = false;
+		for (TripData trip : next) {
+			delayed |= trip.getDelay() != null;
+		}
+		Assert.assertTrue(delayed);
+
+		// delays are those of the indexed day, not of the current one
+		cal.add(Calendar.DAY_OF_MONTH, -1);
+		offline.index("12", cal.getTimeInMillis(), "");
+		delayCalls.clear();
+		offline.getNextTrips("12", "S1", 3, cal.getTimeInMillis(), "");
+		Assert.assertEquals(2, delayCalls.size());
+		for (String service : delayCalls) {
+			Assert.assertTrue(service.contains("/" + offline.getIndexedDay("12") + "/"));
+		}
+	}
+
+	@Test
+	public void spatialIndex() throws Exception {
+		Random random = new Random(7);
+		int n = 100000;
+		List<Stop> stops = new ArrayList<Stop>(n);
+		for (int i = 0; i < n; i++) {
+			Stop stop = new Stop();
+			stop.setId("S" + i);
+			stop.setLatitude(46.0 + random.nextDouble() * 0.2);
+			stop.setLongitude(11.0 + random.nextDouble() * 0.2);
+			stops.add(stop);
+		}
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		GeoStopIndex index = new GeoStopIndex(stops);
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+
+		GeolocalizedStopRequest gsr = new GeolocalizedStopRequest();
+		gsr.setCoordinates(new double[]{46.073134, 11.121761});
+		gsr.setRadius(0.005);
+		gsr.setPageNumber(1);
+		gsr.setPageSize(10);
+		List<Stop> page = index.getGeolocalizedStops(gsr);
+		// brute force check
+		List<Stop> all = new ArrayList<Stop>();
+		for (Stop stop : stops) {
+			double dlat = stop.getLatitude() - 46.073134, dlng = stop.getLongitude() - 11.121761;
+			if (dlat * dlat + dlng * dlng <= 0.005 * 0.005) all.add(stop);
+		}
+		Assert.assertEquals(all.size(), index.find(46.073134, 11.121761, 0.005).size());
+		Assert.assertEquals(10, page.size());
+		Assert.assertEquals(index.find(46.073134, 11.121761, 0.005).subList(10, 20), page);
+		// nearest without radius
+		Assert.assertEquals(index.find(46.073134, 11.121761, 0.005, 0, 5), index.find(46.073134, 11.121761, 0, 0, 5));
+
+		int queries = 100000;
+		long start = System.nanoTime();
+		for (int i = 0; i < queries; i++) {
+			index.find(46.0 + (i % 200) * 0.001, 11.0 + (i % 199) * 0.001, 0.005, 0, 10);
+		}
+		long nanos = (System.nanoTime() - start) / queries;
+		System.err.println("spatial index: " + n + " stops, ~" + (after - before) / 1024 + "KB, " + nanos / 1000.0 + "us/query");
+	}
+
+	@Test
+	public void nearestTaxiStations() throws Exception {
+		final List<String> services = new ArrayList<String>();
+		StubTransport transport = new StubTransport(null, 0) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				super.respond(service);
+				services.add(service);
+				return "[{\"id\":\"far\",\"location\":[46.10,11.20],\"taxis\":5},"
+						+ "{\"id\":\"near-empty\",\"location\":[46.0701,11.1201],\"taxis\":0},"
+						+ "{\"id\":\"near\",\"location\":[46.0710,11.1210],\"taxis\":2},"
+						+ "{\"id\":\"unknown\",\"taxis\":3},"
+						+ "{\"id\":\"mid\",\"location\":[46.08,11.13],\"taxis\":1}]";
+			}
+		};
+		TaxiStationCache cache = new TaxiStationCache(new MobilityDataService("http://localhost", transport), 60000);
+		List<TaxiStation> nearest = cache.getNearest(46.07, 11.12, 2, false, "");
+		Assert.assertEquals("near-empty", nearest.get(0).getId());
+		Assert.assertEquals("near", nearest.get(1).getId());
+		nearest = cache.getNearest(46.07, 11.12, 2, true, "");
+		Assert.assertEquals("near", nearest.get(0).getId());
+		Assert.assertEquals("mid", nearest.get(1).getId());
+		Assert.assertEquals(5, cache.getStations("").size());
+		Assert.assertEquals(Arrays.asList("getTaxiStation/"), services);
+	}
+
+	@Test
+	public void compactTimeTable() throws Exception {
+		MobilityDataService dataService = new MobilityDataService("http://localhost", new StubTransport(timeTableJson(200, 60), 0));
+		TimeTable tt = dataService.getTimeTable("12", "05A", System.currentTimeMillis(), "");
+		CompactTimeTable compact = new CompactTimeTable(tt);
+		Assert.assertEquals(tt.getTimes(), compact.getTimes());
+		Assert.assertEquals(tt.getStopsId(), compact.getStopsId());
+		Assert.assertEquals(tt.getTripIds(), compact.getTripIds());
+		Assert.assertEquals(tt.getStops(), compact.getStops());
+		// serialized as a plain timetable
+		Assert.assertEquals(JsonUtils.toJSON(tt), JsonUtils.toJSON(compact));
+		// a single parser: canonical times are stored as minutes, the others kept as they are
+		Assert.assertEquals(365, TimeUtils.parseMinutes("6:05"));
+		Assert.assertEquals(365, TimeUtils.parseMinutes("06:05:00"));
+		Assert.assertEquals(-1, TimeUtils.parseMinutes("6:5"));
+		Assert.assertEquals(-1, TimeUtils.parseMinutes("06:60"));
+		Assert.assertEquals(-1, TimeUtils.toMinutes("6:05"));
+		Assert.assertEquals("06:05", TimeUtils.formatMinutes(TimeUtils.toMinutes("06:05")));
+		CompactTimeTable other = new CompactTimeTable();
+		other.setTimes(Arrays.asList(Arrays.asList("6:05", "06:05:00", "06:05", "")));
+		Assert.assertEquals(Arrays.asList(Arrays.asList("6:05", "06:05:00", "06:05", "")), other.getTimes());
+
+		int copies = 50;
+		Runtime runtime = Runtime.getRuntime();
+		List<Object> retained = new ArrayList<Object>();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		for (int i = 0; i < copies; i++) {
+			retained.add(dataService.getTimeTable("12", "05A", System.currentTimeMillis(), ""));
+		}
+		System.gc();
+		long lists = (runtime.totalMemory() - runtime.freeMemory() - before) / copies;
+		retained.clear();
+		System.gc();
+		before = runtime.totalMemory() - runtime.freeMemory();
+		for (int i = 0; i < copies; i++) {
+			retained.add(new CompactTimeTable(dataService.getTimeTable("12", "05A", System.currentTimeMillis(), "")));
+		}
+		System.gc();
+		long arrays = (runtime.totalMemory() - runtime.freeMemory() - before) / copies;
+		retained.clear();
+
+		// scan: count the departures after 12:00
+		int rounds = 200;
+		long count = 0, start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (List<String> trip : tt.getTimes()) {
+				for (String time : trip) {
+					if (time.length() > 0 && Integer.parseInt(time.substring(0, 2)) * 60 + Integer.parseInt(time.substring(3)) >= 720) count++;
+				}
+			}
+		}
+		long listScan = (System.nanoTime() - start) / rounds;
+		long compactCount = 0;
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (int t = 0; t < compact.tripCount(); t++) {
+				for (int s = 0; s < compact.getStopCount(t); s++) {
+					if (compact.getMinutes(t, s) >= 720) compactCount++;
+				}
+			}
+		}
+		long compactScan = (System.nanoTime() - start) / rounds;
+		Assert.assertEquals(count, compactCount);
+		System.err.println("timetable 200x60: lists ~" + lists / 1024 + "KB, scan " + listScan / 1000 + "us; compact ~" 
+				+ arrays / 1024 + "KB, scan " + compactScan / 1000 + "us");
+	}
+
+	@Test
+	public void sharedDelays() throws Exception {
+		MobilityDataService dataService = new MobilityDataService("http://localhost", new StubTransport(timeTableJson(300, 1), 0));
+		List<Delay> delays = dataService.getDelays("12", "05A", "");
+		Assert.assertEquals(300, delays.size());
+		int delayed = 0;
+		for (int i = 0; i < delays.size(); i++) {
+			Delay delay = delays.get(i);
+			if (i % 3 == 0) {
+				Assert.assertTrue(delay.hasDelay());
+				Assert.assertEquals(i % 7, delay.getMinutes(CreatorType.SERVICE));
+				delayed++;
+			} else {
+				Assert.assertSame(Delay.NO_DELAY, delay);
+			}
+		}
+		try {
+			Delay.NO_DELAY.getValues().put(CreatorType.USER, "1");
+			Assert.fail();
+		} catch (UnsupportedOperationException e) {
+			// shared instance
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		int polls = 1000;
+		for (int i = 0; i < polls; i++) dataService.getDelays("12", "05A", "");
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < polls; i++) dataService.getDelays("12", "05A", "");
+		long bytes = (threads.getThreadAllocatedBytes(id) - before) / polls;
+		System.err.println("delays poll: 300 trips, " + delayed + " delayed, ~" + bytes / 1024 + "KB allocated per poll");
+	}
+
+	@Test
+	public void internedIds() throws Exception {
+		String json = nextTripsJson(20, 10);
+		MobilityDataService dataService = new MobilityDataService("http://localhost", new StubTransport(json, 0));
+		List<TripData> first = dataService.getNextTrips("12", "S1", 10, "");
+		List<TripData> second = dataService.getNextTrips("12", "S1", 10, "");
+		Assert.assertEquals(200, first.size());
+		for (int i = 0; i < first.size(); i++) {
+			Assert.assertEquals(first.get(i).getTripId(), second.get(i).getTripId());
+			Assert.assertSame(first.get(i).getTripId(), second.get(i).getTripId());
+			Assert.assertSame(first.get(i).getAgencyId(), second.get(i).getAgencyId());
+		}
+		// 200 trips, 20 routes with name and short name, agency "12" is also a short name
+		Assert.assertEquals(260, dataService.getIdDictionary().size());
+
+		// bounded: a full dictionary starts a new generation
+		IdDictionary bounded = new IdDictionary(10);
+		for (int i = 0; i < 25; i++) {
+			Assert.assertEquals("id" + i, bounded.intern(new String("id" + i)));
+			Assert.assertTrue(bounded.size() <= 10);
+		}
+		Assert.assertEquals(2, bounded.getGeneration());
+		Assert.assertEquals(5, bounded.size());
+		Assert.assertEquals("id24", bounded.get(bounded.handle("id24")));
+		bounded.clear();
+		Assert.assertEquals(3, bounded.getGeneration());
+		Assert.assertEquals(0, bounded.size());
+
+		long interned = retainedNextTrips(dataService, 500);
+		dataService.setIdDictionary(null);
+		long plain = retainedNextTrips(dataService, 500);
+		System.err.println("500 next trips responses retained: ~" + plain / 1024 + "KB without dictionary, ~" + interned / 1024 + "KB with dictionary");
+	}
+
+	@Test
+	public void streamingTripData() throws Exception {
+		String json = nextTripsJson(20, 10);
+		MobilityDataService dataService = new MobilityDataService("http://localhost", new StubTransport(json, 0));
+		dataService.setIdDictionary(null);
+		List<TripData> streamed = dataService.getNextTrips("12", "S1", 10, "");
+		List<TripData> legacy = legacyTripData(json);
+		Assert.assertEquals(legacy.size(), streamed.size());
+		Map<String, TripData> byTrip = new HashMap<String, TripData>();
+		for (TripData t : legacy) byTrip.put(t.getTripId(), t);
+		for (TripData t : streamed) {
+			TripData l = byTrip.get(t.getTripId());
+			Assert.assertEquals(l.getRouteId(), t.getRouteId());
+			Assert.assertEquals(l.getRouteName(), t.getRouteName());
+			Assert.assertEquals(l.getRouteShortName(), t.getRouteShortName());
+			Assert.assertEquals(l.getAgencyId(), t.getAgencyId());
+			Assert.assertEquals(l.getTime(), t.getTime());
+			Assert.assertEquals(l.getDelay() == null, t.getDelay() == null);
+			if (t.getDelay() != null) Assert.assertEquals(l.getDelay().getValues(), t.getDelay().getValues());
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		int rounds = 2000;
+		for (int i = 0; i < rounds; i++) {
+			legacyTripData(json);
+			dataService.getNextTrips("12", "S1", 10, "");
+		}
+		long bytes = threads.getThreadAllocatedBytes(id);
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) legacyTripData(json);
+		long legacyTime = System.nanoTime() - start;
+		long legacyBytes = threads.getThreadAllocatedBytes(id) - bytes;
+		bytes = threads.getThreadAllocatedBytes(id);
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) dataService.getNextTrips("12", "S1", 10, "");
+		long streamTime = System.nanoTime() - start;
+		long streamBytes = threads.getThreadAllocatedBytes(id) - bytes;
+		System.err.println("next trips decoding (200 trips): maps " + legacyTime / rounds / 1000 + "us, " + legacyBytes / rounds / 1024 + "KB; "
+				+ "streaming " + streamTime / rounds / 1000 + "us, " + streamBytes / rounds / 1024 + "KB per response");
+	}
+
+	@Test
+	public void streamingTimeTable() throws Exception {
+		String json = timeTableJson(100, 40);
+		TransitDecoder decoder = new TransitDecoder(null);
+		TimeTable legacy = legacyTimeTable(json);
+		TimeTable streamed = decoder.readTimeTable(new StringReader(json));
+		Assert.assertEquals(legacy.getStops(), streamed.getStops());
+		Assert.assertEquals(legacy.getStopsId(), streamed.getStopsId());
+		Assert.assertEquals(legacy.getTripIds(), streamed.getTripIds());
+		Assert.assertEquals(legacy.getTimes(), streamed.getTimes());
+		Assert.assertEquals(legacy.getDelays().size(), streamed.getDelays().size());
+		for (int i = 0; i < legacy.getDelays().size(); i++) {
+			Assert.assertEquals(legacy.getDelays().get(i).getValues(), streamed.getDelays().get(i).getValues());
+		}
+		List<Delay> delays = decoder.readDelays(new StringReader(json));
+		Assert.assertEquals(100, delays.size());
+		Assert.assertEquals(3, delays.get(3).getMinutes(CreatorType.SERVICE));
+
+		// empty and null columns, in the middle and at the end of the response
+		TimeTable partial = decoder.readTimeTable(new StringReader("{\"stopsId\":[\"S1\"],\"tripIds\":[],\"times\":[[[\"06:00\"]]],\"delays\":[]}"));
+		Assert.assertNull(partial.getTripIds());
+		Assert.assertEquals(Arrays.asList(Arrays.asList("06:00")), partial.getTimes());
+		Assert.assertTrue(partial.getDelays().isEmpty());
+		partial = decoder.readTimeTable(new StringReader("{\"tripIds\":null,\"times\":[[[\"06:00\"]]],\"stopsId\":[\"S1\"],\"delays\":null}"));
+		Assert.assertNull(partial.getTripIds());
+		Assert.assertEquals(Arrays.asList(Arrays.asList("06:00")), partial.getTimes());
+		Assert.assertEquals(Arrays.asList("S1"), partial.getStopsId());
+		Assert.assertTrue(partial.getDelays().isEmpty());
+		partial = decoder.readTimeTable(new StringReader("{\"times\":[],\"tripIds\":[[\"T1\"]],\"delays\":[[{}]],\"stopsId\":null}"));
+		Assert.assertNull(partial.getTimes());
+		Assert.assertEquals(Arrays.asList("T1"), partial.getTripIds());
+		Assert.assertEquals(1, partial.getDelays().size());
+		Assert.assertEquals(1, decoder.readDelays(new StringReader("{\"delays\":[],\"tripIds\":[[\"T1\"]],\"delays\":[[{}]]}")).size());
+		Assert.assertTrue(decoder.readDelays(new StringReader("{\"times\":[[]],\"delays\":null}")).isEmpty());
+		Assert.assertTrue(decoder.readDelays(new StringReader("{\"delays\":[],\"times\":[[]]}")).isEmpty());
+		CompactTimeTable compact = decoder.readTimeTable(new StringReader(json), new CompactTimeTable());
+		Assert.assertEquals(legacy.getTimes(), compact.getTimes());
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		int rounds = 500;
+		for (int i = 0; i < rounds; i++) {
+			legacyTimeTable(json);
+			decoder.readTimeTable(new StringReader(json));
+			decoder.readDelays(new StringReader(json));
+		}
+		long bytes = threads.getThreadAllocatedBytes(id);
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) legacyTimeTable(json);
+		long legacyTime = System.nanoTime() - start;
+		long legacyBytes = threads.getThreadAllocatedBytes(id) - bytes;
+		bytes = threads.getThreadAllocatedBytes(id);
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) decoder.readTimeTable(new StringReader(json));
+		long streamTime = System.nanoTime() - start;
+		long streamBytes = threads.getThreadAllocatedBytes(id) - bytes;
+		bytes = threads.getThreadAllocatedBytes(id);
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) decoder.readDelays(new StringReader(json));
+		long delaysTime = System.nanoTime() - start;
+		long delaysBytes = threads.getThreadAllocatedBytes(id) - bytes;
+		System.err.println("timetable decoding (" + json.length() / 1024 + "KB json): maps " + legacyTime / rounds / 1000 + "us, " + legacyBytes / rounds / 1024 + "KB; "
+				+ "streaming " + streamTime / rounds / 1000 + "us, " + streamBytes / rounds / 1024 + "KB; "
+				+ "delays only " + delaysTime / rounds / 1000 + "us, " + delaysBytes / rounds / 1024 + "KB per response");
+	}
+
+	/**
+	 * Map based decoding of the timetable, as done before the streaming decoder
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static TimeTable legacyTimeTable(String json) {
+		TimeTable tt = new TimeTable();
+		Map map = JsonUtils.toObject(json, Map.class);
+		tt.setStops(JsonUtils.convert(map.get("stops"), List.class));
+		tt.setStopsId(JsonUtils.convert(map.get("stopsId"), List.class));
+		List list = (List)map.get("tripIds");
+		tt.setTripIds(JsonUtils.convert(list.get(0), List.class));
+		list = (List)map.get("times");
+		tt.setTimes(JsonUtils.convert(list.get(0), List.class));
+		list = (List)map.get("delays");
+		tt.setDelays(new ArrayList<Delay>());
+		for (Object o : (List)list.get(0)) {
+			tt.getDelays().add(Delay.fromMap((Map)o));
+		}
+		return tt;
+	}
+
+	/**
+	 * Map based decoding, as done before the streaming decoder
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static List<TripData> legacyTripData(String json) {
+		Map<String,Object> map = JsonUtils.toObject(json, Map.class);
+		List<TripData> result = new ArrayList<TripData>();
+		for(String routeId : map.keySet()) {
+			Map obj = (Map)map.get(routeId);
+			List<Map> times = (List)obj.get("times");
+			Map delays = (Map)obj.get("delays");
+			for (Map tMap : times) {
+				TripData t = new TripData();
+				t.setRouteId(routeId);
+				t.setRouteName((String)obj.get("name"));
+				t.setRouteShortName((String)obj.get("route"));
+				if (tMap.containsKey("time")) t.setTime(Long.parseLong(tMap.get("time").toString()));
+				Map tripObj = (Map)tMap.get("trip");
+				t.setTripId((String)tripObj.get("id"));
+				t.setAgencyId((String)tripObj.get("agency"));
+				t.setDelay(delays.containsKey(t.getTripId()) ? Delay.fromMap((Map)delays.get(t.getTripId())) : null);
+				result.add(t);
+			}
+		}
+		return result;
+	}
+
+	private static long retainedNextTrips(MobilityDataService dataService, int responses) throws Exception {
+		Runtime runtime = Runtime.getRuntime();
+		List<List<TripData>> retained = new ArrayList<List<TripData>>();
+		dataService.getNextTrips("12", "S1", 10, "");
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		for (int i = 0; i < responses; i++) {
+			retained.add(dataService.getNextTrips("12", "S1", 10, ""));
+		}
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		Assert.assertEquals(responses, retained.size());
+		return after - before;
+	}
+
+	@Test
+	public void binaryCodec() throws Exception {
+		TransitDecoder decoder = new TransitDecoder(null);
+		TimeTable tt = decoder.readTimeTable(new StringReader(timeTableJson(100, 40)));
+		// times not in the canonical format are kept as they are
+		tt.getTimes().get(3).set(2, "6:10");
+		List<TripData> trips = decoder.readTripData(new StringReader(nextTripsJson(20, 10)));
+		BasicItinerary itinerary = new BasicItinerary();
+		itinerary.setClientId("c1");
+		itinerary.setName("home to work");
+		itinerary.setMonitor(true);
+		ModelCodec codec = new ModelCodec();
+
+		TimeTable decodedTT = (TimeTable) codec.decode(codec.encode(tt));
+		Assert.assertEquals(tt.getStops(), decodedTT.getStops());
+		Assert.assertEquals(tt.getStopsId(), decodedTT.getStopsId());
+		Assert.assertEquals(tt.getTripIds(), decodedTT.getTripIds());
+		Assert.assertEquals(tt.getTimes(), decodedTT.getTimes());
+		for (int i = 0; i < tt.getDelays().size(); i++) {
+			Assert.assertEquals(tt.getDelays().get(i).getValues(), decodedTT.getDelays().get(i).getValues());
+		}
+		Assert.assertSame(Delay.NO_DELAY, decodedTT.getDelays().get(1));
+		List<?> decodedTrips = (List<?>) codec.decode(codec.encode(trips));
+		Assert.assertEquals(trips.size(), decodedTrips.size());
+		for (int i = 0; i < trips.size(); i++) {
+			TripData t = trips.get(i), d = (TripData) decodedTrips.get(i);
+			Assert.assertEquals(t.getTripId(), d.getTripId());
+			Assert.assertEquals(t.getRouteName(), d.getRouteName());
+			Assert.assertEquals(t.getTime(), d.getTime());
+			Assert.assertEquals(t.getDelay() == null, d.getDelay() == null);
+		}
+		BasicItinerary decodedItinerary = (BasicItinerary) codec.decode(codec.encode(itinerary));
+		Assert.assertEquals("home to work", decodedItinerary.getName());
+		Assert.assertTrue(decodedItinerary.isMonitor());
+
+		int rounds = 500;
+		for (int i = 0; i < rounds * 2; i++) {
+			codec.decode(codec.encode(tt));
+			deserialize(serialize(tt));
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) codec.decode(codec.encode(tt));
+		long codecTime = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) deserialize(serialize(tt));
+		long javaTime = System.nanoTime() - start;
+		int codecSize = codec.encode(tt).length, javaSize = serialize(tt).length;
+		System.err.println("timetable 100x40: serialization " + javaSize + "B, " + javaTime / rounds / 1000 + "us; codec " + codecSize + "B, " + codecTime / rounds / 1000 + "us per round-trip");
+		System.err.println("200 trips: serialization " + serialize(trips).length + "B; codec " + codec.encode(trips).length + "B");
+		Assert.assertTrue(codecSize * 10 < javaSize);
+	}
+
+	private static byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(o);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] data) throws Exception {
+		return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+	}
+
+	@Test
+	public void departureIndex() throws Exception {
+		TimeTable tt = new TransitDecoder(null).readTimeTable(new StringReader(timeTableJson(200, 40)));
+		DepartureIndex index = new DepartureIndex(tt);
+		DepartureIndex compactIndex = new DepartureIndex(new CompactTimeTable(tt));
+		Random random = new Random(42);
+		for (int q = 0; q < 500; q++) {
+			String stopId = "S" + random.nextInt(40);
+			int minutes = 300 + random.nextInt(2400);
+			List<Departure> expected = scanDepartures(tt, stopId, minutes, Integer.MAX_VALUE);
+			assertDepartures(expected.subList(0, Math.min(5, expected.size())), index.getNextDepartures(stopId, minutes, 5));
+			assertDepartures(expected.subList(0, Math.min(5, expected.size())), compactIndex.getNextDepartures(stopId, minutes, 5));
+			assertDepartures(scanDepartures(tt, stopId, minutes, minutes + 60), index.getDepartures(stopId, minutes, minutes + 60));
+		}
+		// the same departures from both representations, whatever the time format
+		TimeTable formats = new TimeTable();
+		formats.setStopsId(Arrays.asList("S1", "S2"));
+		formats.setTripIds(Arrays.asList("T1", "T2", "T3"));
+		formats.setTimes(Arrays.asList(Arrays.asList("6:05", "06:10:00"), Arrays.asList("06:20", "bad"), Arrays.asList("", "7:00")));
+		for (TimeTable t : Arrays.asList(formats, new CompactTimeTable(formats))) {
+			DepartureIndex i = new DepartureIndex(t);
+			Assert.assertEquals(365, i.getNextDepartures("S1", 0, 5).get(0).getScheduled());
+			Assert.assertEquals(2, i.getNextDepartures("S1", 0, 5).size());
+			Assert.assertEquals(2, i.getDepartures("S2", 0, 1440).size());
+			Assert.assertEquals(420, i.getDepartures("S2", 0, 1440).get(1).getScheduled());
+		}
+
+		// delays change the order: trip 0 departs at 06:00 with 0 delay, trip 3 at 06:30 with 3
+		List<Departure> next = index.getNextDepartures("S0", 391, 2);
+		Assert.assertEquals("T3", next.get(0).getTripId());
+		Assert.assertEquals(393, next.get(0).getExpected());
+		Assert.assertEquals(3, next.get(0).getDelay().getMinutes(CreatorType.SERVICE));
+		index.setDelays(null);
+		Assert.assertEquals("T4", index.getNextDepartures("S0", 391, 1).get(0).getTripId());
+		index.setDelays(tt.getDelays());
+		// the delay JSON has only the values
+		Assert.assertEquals("{\"values\":{\"SERVICE\":\"3\"}}", JsonUtils.toJSON(tt.getDelays().get(3)));
+
+		int queries = 20000;
+		for (int q = 0; q < queries; q++) {
+			index.getNextDepartures("S" + q % 40, 360 + q % 1800, 5);
+		}
+		long start = System.nanoTime();
+		for (int q = 0; q < queries; q++) {
+			index.getNextDepartures("S" + q % 40, 360 + q % 1800, 5);
+		}
+		long indexed = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int q = 0; q < 200; q++) {
+			scanDepartures(tt, "S" + q % 40, 360 + q % 1800, Integer.MAX_VALUE);
+		}
+		long scan = System.nanoTime() - start;
+		System.err.println("next 5 departures, 200 trips x 40 stops: scan " + scan / 200 / 1000 + "us, index " + indexed / queries + "ns per query");
+	}
+
+	/**
+	 * Departures of the stop expected in the period, scanning the timetable times
+	 */
+	private static List<Departure> scanDepartures(TimeTable tt, String stopId, int from, int to) {
+		List<Departure> result = new ArrayList<Departure>();
+		int s = tt.getStopsId().indexOf(stopId);
+		for (int t = 0; t < tt.getTimes().size(); t++) {
+			int scheduled = TimeUtils.parseMinutes(tt.getTimes().get(t).get(s));
+			if (scheduled < 0) continue;
+			Delay delay = tt.getDelays().get(t);
+			int expected = scheduled + delay.getMinutes(CreatorType.SERVICE);
+			if (expected >= from && expected <= to) {
+				result.add(new Departure(tt.getTripIds().get(t), stopId, scheduled, expected, delay.hasDelay() ? delay : null));
+			}
+		}
+		Collections.sort(result, new Comparator<Departure>() {
+			@Override
+			public int compare(Departure o1, Departure o2) {
+				if (o1.getExpected() != o2.getExpected()) return o1.getExpected() - o2.getExpected();
+				return o1.getScheduled() - o2.getScheduled();
+			}
+		});
+		return result;
+	}
+
+	private static void assertDepartures(List<Departure> expected, List<Departure> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).getExpected(), actual.get(i).getExpected());
+			Assert.assertEquals(expected.get(i).getScheduled(), actual.get(i).getScheduled());
+		}
+	}
+
+	@Test
+	public void persistentTimeTables() throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "tt-" + System.nanoTime());
+		String json = timeTableJson(100, 40);
+		long when = System.currentTimeMillis();
+		StubTransport transport = new StubTransport(json, 0);
+		MobilityDataService dataService = new MobilityDataService("http://localhost", transport);
+		dataService.setTimeTableStore(new TimeTableStore(dir));
+		try {
+			TimeTable remote = dataService.getTimeTable("12", "05A", when, "");
+			Assert.assertEquals(1, transport.getCalls());
+
+			// restart: served from disk, only the delays are read from the server
+			final List<String> services = new ArrayList<String>();
+			transport = new StubTransport(json, 0) {
+				@Override
+				protected String respond(String service) throws RemoteException {
+					services.add(service);
+					return super.respond(service);
+				}
+			};
+			dataService = new MobilityDataService("http://localhost", transport);
+			dataService.setTimeTableStore(new TimeTableStore(dir));
+			TimeTable stored = dataService.getTimeTable("12", "05A", when, "");
+			Assert.assertEquals(1, transport.getCalls());
+			Assert.assertTrue(services.get(0).startsWith("gettransitdelays"));
+			Assert.assertTrue(stored instanceof CompactTimeTable);
+			Assert.assertEquals(remote.getStops(), stored.getStops());
+			Assert.assertEquals(remote.getStopsId(), stored.getStopsId());
+			Assert.assertEquals(remote.getTripIds(), stored.getTripIds());
+			Assert.assertEquals(remote.getTimes(), stored.getTimes());
+			Assert.assertEquals(remote.getDelays().size(), stored.getDelays().size());
+			for (int i = 0; i < remote.getDelays().size(); i++) {
+				Assert.assertEquals(remote.getDelays().get(i).getValues(), stored.getDelays().get(i).getValues());
+			}
+
+			long size = 0;
+			for (File f : new File(new File(dir, "12"), "05A").listFiles()) {
+				size += f.length();
+			}
+			System.err.println("timetable json=" + json.length() + "B, stored=" + size + "B");
+			Assert.assertTrue(size < json.length() / 2);
+		} finally {
+			dataService.getTimeTableStore().clear("12");
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void staleWhileRevalidate() throws Exception {
+		String json = "[{\"name\":\"P1\",\"slotsAvailable\":10}]";
+		// warm up the decoding
+		new MobilityDataService("http://localhost", new StubTransport(json, 0)).getParkings("COMUNE_DI_TRENTO", "");
+		// the refresh (any call after the first) waits for the release
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger blocked = new AtomicInteger();
+		StubTransport transport = new StubTransport(json, 0) {
+			@Override
+			protected String respond(String service) throws RemoteException {
+				if (getCalls() > 0) {
+					blocked.incrementAndGet();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new RemoteException(e);
+					}
+				}
+				return super.respond(service);
+			}
+		};
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final AvailabilityCache cache = new AvailabilityCache(new MobilityDataService("http://localhost", transport), executor, 100, 60000);
+			Snapshot<Parking> first = cache.getParkings("COMUNE_DI_TRENTO", "");
+			Assert.assertSame(first, cache.getParkings("COMUNE_DI_TRENTO", ""));
+			Assert.assertEquals(1, transport.getCalls());
+
+			Thread.sleep(150);
+			for (int i = 0; i < 20; i++) {
+				Assert.assertSame(first, cache.getParkings("COMUNE_DI_TRENTO", ""));
+			}
+			// stale snapshot returned while the refresh is still blocked
+			Assert.assertEquals(0, cache.getRefreshes());
+			Assert.assertTrue(first.getAge() >= 150);
+
+			// once expired, the synchronous read joins the refresh in flight instead of racing with it
+			cache.setMaxStale(100);
+			final List<Snapshot<Parking>> joined = new ArrayList<Snapshot<Parking>>();
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						joined.add(cache.getParkings("COMUNE_DI_TRENTO", ""));
+					} catch (MobilityServiceException e) {
+					}
+				}
+			};
+			reader.start();
+			while (reader.getState() != Thread.State.WAITING) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(1, blocked.get());
+
+			release.countDown();
+			reader.join();
+			for (int i = 0; i < 100 && cache.getRefreshes() == 0; i++) {
+				Thread.sleep(50);
+			}
+			Assert.assertEquals(1, cache.getRefreshes());
+			Assert.assertEquals(2, transport.getCalls());
+			cache.setMaxStale(60000);
+			Snapshot<Parking> second = cache.getParkings("COMUNE_DI_TRENTO", "");
+			Assert.assertSame(second, joined.get(0));
+			Assert.assertTrue(first != second);
+			Assert.assertTrue(second.getTimestamp() - first.getTimestamp() >= 150);
+
+			// public data: one snapshot per agency, whatever the token
+			StubTransport shared = new StubTransport(json, 0);
+			AvailabilityCache sharedCache = new AvailabilityCache(new MobilityDataService("http://localhost", shared), executor, 60000, 60000);
+			Snapshot<Parking> own = sharedCache.getParkings("COMUNE_DI_TRENTO", "");
+			Assert.assertSame(own, sharedCache.getParkings("COMUNE_DI_TRENTO", "other"));
+			Assert.assertEquals(1, shared.getCalls());
+
+			// max stale never below max age
+			cache.setMaxStale(10);
+			Assert.assertEquals(100, cache.getMaxStale());
+			cache.setMaxAge(200);
+			Assert.assertEquals(200, cache.getMaxStale());
+			Assert.assertEquals(300, new AvailabilityCache(null, executor, 300, 0).getMaxStale());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	static HttpServer startServer(HttpHandler handler) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", handler);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		return server;
+	}
+
+	static String serverUrl(HttpServer server) {
+		return "http://localhost:" + server.getAddress().getPort() + "/";
+	}
+
+	private void benchmark(ExecutionMode mode, int calls) throws Exception {
+		StubTransport transport = new StubTransport(NEXT_TRIPS_JSON, 50);
+		MobilityDataService dataService = new MobilityDataService("http://localhost/", transport);
+		ExecutorService executor = MobilityExecutors.newExecutor(mode, 200);
+		try {
+			AsyncMobilityDataService asyncService = new AsyncMobilityDataService(dataService, executor);
+			long start = System.currentTimeMillis();
+			List<MobilityFuture<List<TripData>>> futures = new ArrayList<MobilityFuture<List<TripData>>>(calls);
+			for (int i = 0; i < calls; i++) {
+				futures.add(asyncService.getNextTrips("12", "stop" + i, 3, ""));
+			}
+			for (MobilityFuture<List<TripData>> f : futures) {
+				Assert.assertEquals(2, f.get().size());
+			}
+			long time = System.currentTimeMillis() - start;
+			Assert.assertEquals(calls, transport.getCalls());
+			System.err.println(mode + "\t" + calls + "\t" + time + "\t" + (calls * 1000L / Math.max(1, time)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Transport returning a fixed response after the specified latency
+	 */
+	static class StubTransport implements MobilityTransport {
+
+		private String response;
+		private long latency;
+		private AtomicInteger calls = new AtomicInteger();
+
+		public StubTransport(String response, long latency) {
+			this.response = response;
+			this.latency = latency;
+		}
+
+		public int getCalls() {
+			return calls.get();
+		}
+
+		protected String respond(String service) throws RemoteException {
+			calls.incrementAndGet();
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				throw new RemoteException(e);
+			}
+			return response;
+		}
+
+		@Override
+		public String getJSON(String host, String service, String token) throws SecurityException, RemoteException {
+			return respond(service);
+		}
+
+		@Override
+		public String getJSON(String host, String service, String token, Map<String, Object> parameters) throws SecurityException, RemoteException {
+			return respond(service);
+		}
+
+		@Override
+		public ConditionalResponse getConditional(String host, String service, String token, String etag, String lastModified) throws SecurityException, RemoteException {
+			return new ConditionalResponse(false, respond(service), null, null);
+		}
+
+		@Override
+		public String postJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+			return respond(service);
+		}
+
+		@Override
+		public String putJSON(String host, String service, String body, String token) throws SecurityException, RemoteException {
+			return respond(service);
+		}
+
+		@Override
+		public String deleteJSON(String host, String service, String token) throws SecurityException, RemoteException {
+			return respond(service);
+		}
+
+		@Override
+		public InputStream getStream(String host, String service, String token) throws SecurityException, RemoteException {
+			return new ByteArrayInputStream(respond(service).getBytes());
+		}
+
+		@Override
+		public RangeResponse getRange(String host, String service, String token, long offset, String ifRange) throws SecurityException, RemoteException {
+			byte[] bytes = respond(service).getBytes();
+			return new RangeResponse(new ByteArrayInputStream(bytes), false, 0, bytes.length, null);
+		}
+	}
+}